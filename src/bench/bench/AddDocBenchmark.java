@@ -0,0 +1,74 @@
+package bench;
+
+import main.IndexEngine;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures IndexEngine.addDoc (normalization + analysis + indexing) for
+ * each index method, writing to an in-memory directory. Run with -t N
+ * to have N threads share the IndexWriter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AddDocBenchmark {
+    @Param({"1", "2", "3"})
+    public String indexMethod;
+
+    @Param({"1"})
+    public int corpusSize;
+
+    private IndexEngine indexEngine;
+    private List<String[]> articles;
+    private AtomicInteger next = new AtomicInteger();
+
+    private Directory index;
+    private IndexWriter writer;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        indexEngine = new IndexEngine(indexMethod);
+        articles = Corpus.articles(corpusSize);
+    }
+
+    @Setup(Level.Iteration)
+    public void openWriter() throws IOException {
+        index = new ByteBuffersDirectory();
+        writer = new IndexWriter(index, IndexEngine.createConfig(indexEngine.getAnalyzer()));
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeWriter() throws IOException {
+        writer.close();
+        index.close();
+    }
+
+    @Benchmark
+    public void addDoc() {
+        String[] article = articles.get(Math.floorMod(next.getAndIncrement(), articles.size()));
+        indexEngine.addDoc(writer, article[0], article[1], article[2]);
+    }
+}
@@ -0,0 +1,59 @@
+package bench;
+
+import main.Article;
+import main.WikiParser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Corpus builds benchmark input from wiki-example.txt, repeated
+ * corpusSize times to scale the amount of data processed.
+ */
+public class Corpus {
+    public static final String examplePath = "wiki-example.txt";
+
+    /**
+     * Writes corpusSize copies of the example wiki file to a temp file
+     *
+     * @param corpusSize Number of copies of the example file
+     * @return Path to the generated file (caller deletes it)
+     * @throws IOException
+     */
+    public static Path write(int corpusSize) throws IOException {
+        byte[] example = Files.readAllBytes(Paths.get(examplePath));
+        Path corpus = Files.createTempFile("watson-corpus", ".txt");
+        for (int i = 0; i < corpusSize; i++) {
+            Files.write(corpus, example, StandardOpenOption.APPEND);
+        }
+        return corpus;
+    }
+
+    /**
+     * Parses corpusSize copies of the example wiki file into articles
+     *
+     * @param corpusSize Number of copies of the example file
+     * @return List of {title, category, content} arrays
+     * @throws IOException
+     */
+    public static List<String[]> articles(int corpusSize) throws IOException {
+        List<String[]> articles = new ArrayList<>();
+        Path corpus = write(corpusSize);
+        try {
+            try (WikiParser parser = new WikiParser(corpus)) {
+                while (parser.hasNext()) {
+                    Article article = parser.next();
+                    articles.add(new String[]{article.getTitle(), article.getCategory(), article.getContent()});
+                }
+            }
+        } finally {
+            Files.delete(corpus);
+        }
+        return articles;
+    }
+}
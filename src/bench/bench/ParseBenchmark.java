@@ -0,0 +1,107 @@
+package bench;
+
+import main.Constants;
+import main.CorpusCache;
+import main.IndexEngine;
+import main.WikiParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures IndexEngine's line classification & file parsing over
+ * corpusSize copies of wiki-example.txt (one op = whole corpus). Run
+ * with -prof gc to compare allocation rates. parseFile always parses &
+ * analyzes, replayFile streams the same Documents from the corpus cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+    @Param({"1", "10"})
+    public int corpusSize;
+
+    private IndexEngine indexEngine;
+    private IndexEngine replayEngine;
+    private Path corpus;
+    private Path corpusCache;
+    private List<String> lines;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        indexEngine = new IndexEngine(Constants.NONE);
+        indexEngine.setCorpusCache(false);
+        corpus = Corpus.write(corpusSize);
+        lines = Files.readAllLines(corpus, StandardCharsets.UTF_8);
+
+        // Records the corpus cache of the file, replayed by every replayFile op
+        replayEngine = new IndexEngine(Constants.NONE);
+        replayEngine.setCorpusCache(true);
+        replayEngine.parseFile(corpus.toString(), doc -> { });
+        corpusCache = new CorpusCache(Paths.get(Constants.defaultIndexPath).getFileName().toString(), Constants.NONE,
+                replayEngine.getAnalyzer()).getPath(corpus);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.delete(corpus);
+        Files.deleteIfExists(corpusCache);
+    }
+
+    @Benchmark
+    public void classifyLines(Blackhole bh) {
+        for (String line : lines) {
+            String lineToProcess = line.trim();
+            if (indexEngine.isTitle(lineToProcess)) {
+                bh.consume(indexEngine.extractTitle(lineToProcess));
+            } else if (indexEngine.isCategory(lineToProcess)) {
+                bh.consume(indexEngine.extractCategory(lineToProcess));
+            } else if (indexEngine.isHeader(lineToProcess)) {
+                bh.consume(indexEngine.extractHeader(lineToProcess));
+            } else {
+                bh.consume(indexEngine.sanitize(lineToProcess));
+            }
+        }
+    }
+
+    @Benchmark
+    public void streamArticles(Blackhole bh) throws IOException {
+        try (WikiParser parser = new WikiParser(corpus)) {
+            while (parser.hasNext()) {
+                bh.consume(parser.next());
+            }
+        }
+    }
+
+    @Benchmark
+    public void parseFile(Blackhole bh) {
+        indexEngine.parseFile(corpus.toString(), bh::consume);
+    }
+
+    @Benchmark
+    public void replayFile(Blackhole bh) {
+        replayEngine.parseFile(corpus.toString(), bh::consume);
+    }
+}
@@ -0,0 +1,85 @@
+package bench;
+
+import main.Constants;
+import main.IndexEngine;
+import main.QueryEngine;
+import main.Question;
+import main.Result;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the latency of answering one question (query generation +
+ * search + hit retrieval) under each of the four similarities, against
+ * an in-memory index of the example corpus. Run with -t N to have N
+ * threads share the searcher.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+    @Param({"1", "2", "3", "4"})
+    public String queryMethod;
+
+    @Param({"1"})
+    public String indexMethod;
+
+    @Param({"10"})
+    public int corpusSize;
+
+    private Directory index;
+    private IndexReader reader;
+    private QueryEngine queryEngine;
+    private List<Question> questions;
+    private AtomicInteger next = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        IndexEngine indexEngine = new IndexEngine(indexMethod);
+        index = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(index, IndexEngine.createConfig(indexEngine.getAnalyzer()))) {
+            for (String[] article : Corpus.articles(corpusSize)) {
+                indexEngine.addDoc(writer, article[0], article[1], article[2]);
+            }
+        }
+        reader = DirectoryReader.open(index);
+        queryEngine = new QueryEngine(indexEngine, reader, queryMethod, indexMethod);
+        questions = Question.load(Constants.pathToQuestions);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        reader.close();
+        index.close();
+    }
+
+    @Benchmark
+    public List<Result> executeQuery() {
+        Question question = questions.get(Math.floorMod(next.getAndIncrement(), questions.size()));
+        return queryEngine.search(queryEngine.buildQuery(question.getCategory(), question.getClue()));
+    }
+}
@@ -0,0 +1,96 @@
+package bench;
+
+import main.Constants;
+import main.IndexEngine;
+import main.QueryEngine;
+import main.Question;
+import main.Result;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures single-query latency against the example corpus split into
+ * N in-memory shards, routed the same way as IndexEngine. Shards are
+ * searched concurrently over -Dwatson.searchThreads threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShardBenchmark {
+    @Param({"1", "2", "4", "8"})
+    public int shards;
+
+    @Param({"1"})
+    public String queryMethod;
+
+    @Param({"10"})
+    public int corpusSize;
+
+    private Directory[] indexes;
+    private IndexReader reader;
+    private QueryEngine queryEngine;
+    private List<Question> questions;
+    private AtomicInteger next = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        IndexEngine indexEngine = new IndexEngine(Constants.NONE);
+        indexes = new Directory[shards];
+        IndexWriter[] writers = new IndexWriter[shards];
+        for (int i = 0; i < shards; i++) {
+            indexes[i] = new ByteBuffersDirectory();
+            writers[i] = new IndexWriter(indexes[i], IndexEngine.createConfig(indexEngine.getAnalyzer()));
+        }
+        for (String[] article : Corpus.articles(corpusSize)) {
+            indexEngine.addDoc(writers[IndexEngine.shardOf(article[0].trim(), shards)], article[0], article[1], article[2]);
+        }
+
+        IndexReader[] shardReaders = new IndexReader[shards];
+        for (int i = 0; i < shards; i++) {
+            writers[i].close();
+            shardReaders[i] = DirectoryReader.open(indexes[i]);
+        }
+        reader = shards == 1 ? shardReaders[0] : new MultiReader(shardReaders);
+        queryEngine = new QueryEngine(indexEngine, reader, queryMethod, Constants.NONE);
+        questions = Question.load(Constants.pathToQuestions);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        reader.close();
+        for (Directory index : indexes) {
+            index.close();
+        }
+    }
+
+    @Benchmark
+    public List<Result> executeQuery() {
+        Question question = questions.get(Math.floorMod(next.getAndIncrement(), questions.size()));
+        return queryEngine.search(queryEngine.buildQuery(question.getCategory(), question.getClue()));
+    }
+}
@@ -0,0 +1,140 @@
+package main;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * AliasTable maps alternative titles (#REDIRECT stubs of the wiki dump)
+ * to the title of the article they point to. It is saved next to the
+ * index as a tab-separated "alias -> canonical title" file, instead of
+ * indexing every redirect as a Document.
+ */
+public class AliasTable {
+    // Name of the file holding the table, inside the index directory
+    public static final String FILE_NAME = "aliases.tsv";
+
+    // Longest chain of redirects followed by resolve()
+    private static final int MAX_HOPS = 4;
+
+    private final Map<String, String> aliases = new ConcurrentHashMap<>();
+    private volatile boolean changed = false;
+
+    /**
+     * Loads the table saved at the given path
+     *
+     * @param path Path to the alias file
+     * @return AliasTable, empty if the file does not exist
+     * @throws IOException
+     */
+    public static AliasTable load(Path path) throws IOException {
+        AliasTable table = new AliasTable();
+        if (!Files.exists(path)) {
+            return table;
+        }
+        try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab > 0) {
+                    table.aliases.put(line.substring(0, tab), line.substring(tab + 1));
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Records that the alias redirects to the canonical title
+     *
+     * @param alias Title of the redirect
+     * @param canonical Title it redirects to
+     */
+    public void put(String alias, String canonical) {
+        if (!alias.equals(canonical) && !canonical.equals(aliases.put(alias, canonical))) {
+            changed = true;
+        }
+    }
+
+    /**
+     * Utility method used to follow the redirects of a title
+     *
+     * @param title Title to resolve
+     * @return Canonical title, or title itself if it is not an alias
+     */
+    public String resolve(String title) {
+        String resolved = title;
+        for (int hops = 0; hops < MAX_HOPS; hops++) {
+            String target = aliases.get(resolved);
+            if (target == null) {
+                break;
+            }
+            resolved = target;
+        }
+        return resolved;
+    }
+
+    /**
+     * Adds every alias of the other table, e.g. of a partial index
+     *
+     * @param other AliasTable to copy the aliases of
+     */
+    public void putAll(AliasTable other) {
+        for (Map.Entry<String, String> alias : other.aliases.entrySet()) {
+            put(alias.getKey(), alias.getValue());
+        }
+    }
+
+    /**
+     * Removes every alias, e.g. when the index is rebuilt from scratch.
+     * The next save() then empties the file.
+     */
+    public void clear() {
+        if (!aliases.isEmpty()) {
+            aliases.clear();
+            changed = true;
+        }
+    }
+
+    public int size() {
+        return aliases.size();
+    }
+
+    /**
+     * Writes the table to the given path if it changed since it was
+     * loaded or last saved. The file is replaced atomically, & a failed
+     * write is retried by the next save.
+     *
+     * @param path Path to the alias file
+     * @throws IOException
+     */
+    public void save(Path path) throws IOException {
+        if (!changed) {
+            return;
+        }
+        changed = false;
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, String> alias : aliases.entrySet()) {
+                    out.write(alias.getKey());
+                    out.write('\t');
+                    out.write(alias.getValue());
+                    out.newLine();
+                }
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            // Aliases added meanwhile also set the flag, so it is only cleared before writing
+            changed = true;
+            Files.deleteIfExists(tmp);
+            throw ex;
+        }
+    }
+}
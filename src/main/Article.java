@@ -0,0 +1,70 @@
+package main;
+
+public class Article {
+    private String title;
+    private String category;
+    private String content;
+    private String redirect;
+
+    public Article(String title, String category, String content) {
+        this(title, category, content, null);
+    }
+
+    public Article(String title, String category, String content, String redirect) {
+        this.title = title;
+        this.category = category;
+        this.content = content;
+        this.redirect = redirect;
+    }
+
+    /**
+     * Public accessor of the title attribute
+     *
+     * @return title instance variable
+     */
+    public String getTitle() {
+        return this.title;
+    }
+
+    /**
+     * Public accessor of the category attribute (lowercase)
+     *
+     * @return category instance variable
+     */
+    public String getCategory() {
+        return this.category;
+    }
+
+    /**
+     * Public accessor of the content attribute (lowercase text + headers)
+     *
+     * @return content instance variable
+     */
+    public String getContent() {
+        return this.content;
+    }
+
+    /**
+     * Public accessor of the redirect attribute, the title the article
+     * redirects to (original case)
+     *
+     * @return redirect instance variable, null if not a #REDIRECT stub
+     */
+    public String getRedirect() {
+        return this.redirect;
+    }
+
+    public boolean isRedirect() {
+        return this.redirect != null;
+    }
+
+    /**
+     * Utility method used to determine whether the article is a
+     * disambiguation page, listing the articles sharing a name
+     *
+     * @return boolean true/false evaluation
+     */
+    public boolean isDisambiguation() {
+        return this.title.endsWith("(disambiguation)");
+    }
+}
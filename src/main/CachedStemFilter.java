@@ -0,0 +1,59 @@
+package main;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.KeywordAttribute;
+import org.apache.lucene.util.Version;
+import org.tartarus.snowball.ext.PorterStemmer;
+
+import java.io.IOException;
+
+/**
+ * CachedStemFilter stems each token with the Snowball Porter stemmer,
+ * like SnowballFilter, but looks the stem up in the shared
+ * NormalizationCache first, so each distinct word is only stemmed once.
+ */
+public final class CachedStemFilter extends TokenFilter {
+    // Bump whenever stemming changes, so cached stems & tokens are rebuilt
+    private static final int VERSION = 1;
+
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+    private final KeywordAttribute keywordAtt = addAttribute(KeywordAttribute.class);
+    private final PorterStemmer stemmer = new PorterStemmer();
+    private final NormalizationCache cache = NormalizationCache.stems();
+
+    public CachedStemFilter(TokenStream input) {
+        super(input);
+    }
+
+    /**
+     * Public accessor of the version of the stems produced: this class &
+     * the Lucene release providing the Snowball stemmer
+     *
+     * @return String version, e.g. "porter-1 lucene-7.7.1"
+     */
+    public static String getVersion() {
+        return "porter-" + VERSION + " lucene-" + Version.LATEST;
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+        if (!input.incrementToken()) {
+            return false;
+        }
+        if (keywordAtt.isKeyword()) {
+            return true;
+        }
+        String word = termAtt.toString();
+        String stem = cache.get(word);
+        if (stem == null) {
+            stemmer.setCurrent(termAtt.buffer(), termAtt.length());
+            stemmer.stem();
+            stem = new String(stemmer.getCurrentBuffer(), 0, stemmer.getCurrentBufferLength());
+            cache.put(word, stem);
+        }
+        termAtt.setEmpty().append(stem);
+        return true;
+    }
+}
@@ -19,4 +19,94 @@ public class Constants {
     public static final String BOOLEAN = "2";
     public static final String TF_IDF = "3";
     public static final String JM = "4"; // Jelinek Mercer
+
+    // Index build tuning (override with -Dwatson.<name>=<value>)
+    public static final int indexWorkers = Integer.getInteger("watson.indexWorkers", 1); // 1 = serial build
+    public static final int indexQueueCapacity = Integer.getInteger("watson.indexQueueCapacity", 1024);
+
+    // IndexWriter tuning, defaults match Lucene's (see IndexEngine.createConfig)
+    public static final double indexRamBufferMB = Double.parseDouble(System.getProperty("watson.indexRamBufferMB", "16"));
+    public static final int indexMaxBufferedDocs = Integer.getInteger("watson.indexMaxBufferedDocs", -1); // -1 = flush by RAM usage only
+    public static final int indexMergeThreads = Integer.getInteger("watson.indexMergeThreads", -1); // -1 = detect from the machine
+    public static final double mergeSegmentsPerTier = Double.parseDouble(System.getProperty("watson.mergeSegmentsPerTier", "10"));
+    public static final int mergeMaxMergeAtOnce = Integer.getInteger("watson.mergeMaxMergeAtOnce", 10);
+    public static final double mergeMaxSegmentMB = Double.parseDouble(System.getProperty("watson.mergeMaxSegmentMB", "5120"));
+    public static final boolean indexCompoundFile = Boolean.parseBoolean(System.getProperty("watson.indexCompoundFile", "true"));
+    public static final int indexForceMerge = Integer.getInteger("watson.indexForceMerge", 0); // 0 = no force merge, n = merge down to n segments
+
+    // Sharding: documents are split by title hash over indexShards indexes
+    // stored under <index path>-shards<n>/shard-<i>, searched concurrently
+    public static final int indexShards = Integer.getInteger("watson.indexShards", 1); // 1 = single index
+    // Partitioned builds (see PartitionedBuild): worker processes' partial indexes are
+    // combined, then merged down to partitionMergeSegments segments per shard
+    public static final int partitionMergeSegments = Integer.getInteger("watson.partitionMergeSegments", 0); // 0 = keep the workers' segments
+    public static final int searchThreads = Integer.getInteger("watson.searchThreads",
+            Runtime.getRuntime().availableProcessors());
+
+    // Fielded layout: title, category & body in separate fields, scored per field (BM25F-style)
+    public static final boolean fieldedIndex = Boolean.getBoolean("watson.fieldedIndex");
+    public static final float titleBoost = Float.parseFloat(System.getProperty("watson.titleBoost", "2.0"));
+    public static final float categoryBoost = Float.parseFloat(System.getProperty("watson.categoryBoost", "1.0"));
+    public static final float bodyBoost = Float.parseFloat(System.getProperty("watson.bodyBoost", "1.0"));
+    // BM25 length normalization per field; short fields gain little from it
+    public static final float titleB = Float.parseFloat(System.getProperty("watson.titleB", "0.3"));
+    public static final float categoryB = Float.parseFloat(System.getProperty("watson.categoryB", "0.3"));
+    public static final float bodyB = Float.parseFloat(System.getProperty("watson.bodyB", "0.75"));
+
+    // Fold #REDIRECT stubs into the alias table & skip disambiguation pages instead of indexing them,
+    // & accept answer alternatives & aliases when judging answers
+    public static final boolean foldStubs = Boolean.getBoolean("watson.foldStubs");
+
+    // Parsed & analyzed articles cached per source file (see CorpusCache), so rebuilds skip the NLP pass
+    public static final boolean corpusCache = Boolean.getBoolean("watson.corpusCache");
+    public static final String corpusCacheDir = System.getProperty("watson.corpusCacheDir", "index/corpus");
+
+    // Memoized token normalization (see NormalizationCache), shared by indexing & querying
+    public static final int normCacheSize = Integer.getInteger("watson.normCacheSize", 1000000); // entries per cache, 0 = off
+    public static final String normCacheDir = System.getProperty("watson.normCacheDir", "index");
+
+    // Index layout: lean indexes keep titles in doc values & store no article text
+    public static final boolean leanIndex = Boolean.parseBoolean(System.getProperty("watson.leanIndex", "false"));
+
+    // Query evaluation tuning (override with -Dwatson.<name>=<value>)
+    public static final int queryWorkers = Integer.getInteger("watson.queryWorkers", 1); // 1 = serial evaluation
+
+    // Query optimizer: questions are turned into term queries directly, without frequent terms
+    // (in more than queryMaxDocFreq of the documents) & with at most queryMaxClauses terms
+    public static final boolean queryOptimizer = Boolean.getBoolean("watson.queryOptimizer");
+    public static final double queryMaxDocFreq = Double.parseDouble(System.getProperty("watson.queryMaxDocFreq", "0.5"));
+    public static final int queryMaxClauses = Integer.getInteger("watson.queryMaxClauses", 32);
+    public static final double queryMinShouldMatch = Double.parseDouble(System.getProperty("watson.queryMinShouldMatch", "0")); // 0 = any term
+
+    // Two-phase retrieval: the top rescoreDepth hits of the query are rescored by the
+    // question's category, the proximity of its clue terms & their Jelinek Mercer score
+    public static final int rescoreDepth = Integer.getInteger("watson.rescoreDepth", 0); // 0 = single pass
+    public static final double rescoreBudgetMs = Double.parseDouble(System.getProperty("watson.rescoreBudgetMs", "50")); // 0 = no budget
+    public static final float rescoreCategoryWeight = Float.parseFloat(System.getProperty("watson.rescoreCategoryWeight", "0.5"));
+    public static final float rescoreProximityWeight = Float.parseFloat(System.getProperty("watson.rescoreProximityWeight", "1.0"));
+    public static final int rescoreSlop = Integer.getInteger("watson.rescoreSlop", 3);
+    public static final float rescoreJmWeight = Float.parseFloat(System.getProperty("watson.rescoreJmWeight", "1.0"));
+    public static final String rescoreCurve = System.getProperty("watson.rescoreCurve", "10,20,50,100"); // depths compared in matrix mode
+
+    // Category filter: only score documents whose category field shares a term with the
+    // question's category, searching unfiltered when that leaves fewer than categoryFilterMinHits hits
+    public static final boolean categoryFilter = Boolean.getBoolean("watson.categoryFilter");
+    public static final int categoryFilterMinHits = Integer.getInteger("watson.categoryFilterMinHits", 10);
+    public static final int categoryFilterCacheSize = Integer.getInteger("watson.categoryFilterCacheSize", 1000); // cached filters
+    public static final double categoryFilterCacheMB = Double.parseDouble(System.getProperty("watson.categoryFilterCacheMB", "64"));
+
+    // Query cache sizes, in entries (see QueryCache)
+    public static final int queryCacheSize = Integer.getInteger("watson.queryCacheSize", 10000);
+    public static final int resultCacheSize = Integer.getInteger("watson.resultCacheSize", 10000);
+
+    // Per-stage metrics (see Metrics), off by default; set metricsFile to also write JSON
+    public static final boolean metricsEnabled = Boolean.getBoolean("watson.metrics");
+    public static final String metricsFile = System.getProperty("watson.metricsFile", "");
+
+    // Query server (see QueryServer)
+    public static final String directoryMode = System.getProperty("watson.directoryMode", "fs"); // fs, mmap, heap or direct
+    public static final int warmupQuestions = Integer.getInteger("watson.warmupQuestions", 20); // questions run before serving
+    public static final int serverRefreshSeconds = Integer.getInteger("watson.serverRefreshSeconds", 5);
+    public static final int serverDefaultK = Integer.getInteger("watson.serverDefaultK", 10);
+    public static final int serverMaxK = Integer.getInteger("watson.serverMaxK", 1000);
 }
@@ -0,0 +1,416 @@
+package main;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.store.DataInput;
+import org.apache.lucene.store.DataOutput;
+import org.apache.lucene.store.InputStreamDataInput;
+import org.apache.lucene.store.OutputStreamDataOutput;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * CorpusCache keeps the parsed & analyzed Articles of each wiki file on
+ * disk, so rebuilding an index (new writer settings, layout, norms...)
+ * streams tokens straight into the IndexWriter instead of re-running
+ * the parser & the NLP analysis chain.
+ *
+ * There is one gzip-compressed file per source file & index method,
+ * under Constants.corpusCacheDir/<method>/<file>.bin.gz:
+ *
+ *  header  codec header, index method, analysis version, source size & CRC32
+ *  entry*  1, title, category, content, redirect, title/category/content tokens
+ *  end     0
+ *
+ * Strings are length-prefixed UTF-8, numbers vInts, & each distinct term
+ * is written once & then referred to by its ordinal. A cache whose
+ * header does not match the source file is stale & rebuilt; the gzip
+ * trailer checksums the whole file, & is verified before replaying it. The analysis version (see
+ * IndexEngine.getAnalysisVersion()) changes with the analysis chain, so
+ * tokens produced by another chain are never replayed.
+ */
+public class CorpusCache {
+    private static final String CODEC = "WatsonCorpus";
+    private static final int VERSION = 2;
+    private static final String EXTENSION = ".bin.gz";
+
+    private static final byte ENTRY = 1;
+    private static final byte END = 0;
+
+    private final Path dir;
+    private final String indexMethod;
+    private final String analysisVersion;
+    private final Analyzer analyzer;
+
+    /**
+     * @param indexName Name of the index method's directory, e.g. "lemma"
+     * @param indexMethod One of Constants.NONE, LEMMA or STEMMING
+     * @param analyzer Analyzer of the index method
+     */
+    public CorpusCache(String indexName, String indexMethod, Analyzer analyzer) {
+        this.dir = Paths.get(Constants.corpusCacheDir, indexName);
+        this.indexMethod = indexMethod;
+        this.analysisVersion = IndexEngine.getAnalysisVersion(indexMethod);
+        this.analyzer = analyzer;
+    }
+
+    /**
+     * Public accessor of the cache file of a source file
+     *
+     * @param source Path to the wiki file
+     * @return Path of its cache file
+     */
+    public Path getPath(Path source) {
+        return dir.resolve(source.getFileName() + EXTENSION);
+    }
+
+    /**
+     * Streams the cached Entries of the source file, if its cache exists
+     * & was built from the file's current contents. The whole cache is
+     * checked (gzip CRC32 & length) before the first Entry is streamed,
+     * since the sink cannot take back Documents it was already handed: a
+     * truncated or corrupt cache is deleted & the file parsed again.
+     *
+     * @param source Path to the wiki file
+     * @param sink Consumer receiving each Entry, in file order
+     * @return boolean true if the cache was replayed, false if it is
+     *         missing, stale or corrupt (sink is then never called)
+     * @throws IOException
+     */
+    public boolean replay(Path source, Consumer<Entry> sink) throws IOException {
+        Path path = getPath(source);
+        if (!Files.exists(path)) {
+            return false;
+        }
+        long size = Files.size(source);
+        long checksum = IndexManifest.checksum(source);
+        if (!isIntact(path, size, checksum)) {
+            return false;
+        }
+        try (InputStream stream = open(path)) {
+            DataInput in = new InputStreamDataInput(new BufferedInputStream(stream, 1 << 16));
+            readHeader(in, size, checksum);
+            List<String> terms = new ArrayList<>();
+            while (in.readByte() == ENTRY) {
+                String title = in.readString();
+                String category = in.readString();
+                String content = in.readString();
+                String redirect = in.readString();
+                Entry entry = new Entry(new Article(title, category, content, redirect.isEmpty() ? null : redirect),
+                        readTokens(in, terms), readTokens(in, terms), readTokens(in, terms));
+                sink.accept(entry);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Utility method used to check the cache file matches the source file
+     * & decompresses in full, which verifies the gzip trailer. A corrupt
+     * cache file is deleted.
+     *
+     * @param path Path of the cache file
+     * @param size Size of the source file
+     * @param checksum CRC32 of the source file
+     * @return boolean true if the cache can be replayed, false if it is stale or corrupt
+     * @throws IOException
+     */
+    private boolean isIntact(Path path, long size, long checksum) throws IOException {
+        try (InputStream stream = open(path)) {
+            if (!readHeader(new InputStreamDataInput(stream), size, checksum)) {
+                return false;
+            }
+            byte[] buffer = new byte[1 << 16];
+            while (stream.read(buffer) != -1) {
+                // Only the checksum of the rest is needed here
+            }
+            return true;
+        } catch (IOException ex) {
+            System.out.println("Corpus cache: " + path + " is corrupt (" + ex + "), parsing the file again");
+            Files.deleteIfExists(path);
+            return false;
+        }
+    }
+
+    /**
+     * Utility method used to read the header of a cache file & compare it
+     * with the index method, analysis version & source file
+     *
+     * @return boolean true if the cache was built from the current source file
+     * @throws IOException
+     */
+    private boolean readHeader(DataInput in, long size, long checksum) throws IOException {
+        return CodecUtil.checkHeader(in, CODEC, 1, VERSION) == VERSION
+                && in.readString().equals(indexMethod) && in.readString().equals(analysisVersion)
+                && in.readLong() == size && in.readLong() == checksum;
+    }
+
+    private static InputStream open(Path path) throws IOException {
+        return new GZIPInputStream(Files.newInputStream(path), 1 << 16);
+    }
+
+    /**
+     * Opens a Writer building the cache of the source file. The cache
+     * only replaces the previous one once the Writer is committed.
+     *
+     * @param source Path to the wiki file
+     * @return Writer of the cache file
+     * @throws IOException
+     */
+    public Writer create(Path source) throws IOException {
+        Files.createDirectories(dir);
+        return new Writer(source, getPath(source));
+    }
+
+    /**
+     * Runs the index method's analysis chain over the title, category &
+     * content of the Article, trimmed & defaulted like
+     * IndexEngine.createDoc() does
+     *
+     * @param article Parsed Article
+     * @return Entry holding the Article & its tokens
+     */
+    public Entry analyze(Article article) {
+        Article fields = new Article(article.getTitle().trim(), orDefault(article.getCategory()),
+                orDefault(article.getContent()), article.getRedirect());
+        return new Entry(fields, Tokens.analyze(analyzer, "text", fields.getTitle()),
+                Tokens.analyze(analyzer, "category", fields.getCategory()),
+                Tokens.analyze(analyzer, "text", fields.getContent()));
+    }
+
+    /**
+     * Utility method used to trim a field & replace it with "." when empty
+     *
+     * @param value Field to process
+     * @return String field value to index
+     */
+    public static String orDefault(String value) {
+        value = value.trim();
+        return value.isEmpty() ? "." : value;
+    }
+
+    private static Tokens readTokens(DataInput in, List<String> terms) throws IOException {
+        int size = in.readVInt();
+        String[] tokenTerms = new String[size];
+        int[] increments = new int[size];
+        for (int i = 0; i < size; i++) {
+            increments[i] = in.readVInt();
+            int ord = in.readVInt();
+            if (ord == 0) {
+                // First occurrence of the term in the file
+                terms.add(in.readString());
+                ord = terms.size();
+            }
+            tokenTerms[i] = terms.get(ord - 1);
+        }
+        return new Tokens(tokenTerms, increments, in.readVInt());
+    }
+
+    /**
+     * Writes the cache of one source file to a temporary file, moved in
+     * place by commit()
+     */
+    public class Writer implements Closeable {
+        private final Path path;
+        private final Path tmp;
+        private final OutputStreamDataOutput out;
+        private final Map<String, Integer> terms = new HashMap<>();
+        private boolean committed = false;
+
+        private Writer(Path source, Path path) throws IOException {
+            this.path = path;
+            this.tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            this.out = new OutputStreamDataOutput(new BufferedOutputStream(
+                    new GZIPOutputStream(Files.newOutputStream(tmp), 1 << 16), 1 << 16));
+            CodecUtil.writeHeader(out, CODEC, VERSION);
+            out.writeString(indexMethod);
+            out.writeString(analysisVersion);
+            out.writeLong(Files.size(source));
+            out.writeLong(IndexManifest.checksum(source));
+        }
+
+        public void add(Entry entry) throws IOException {
+            Article article = entry.getArticle();
+            out.writeByte(ENTRY);
+            out.writeString(article.getTitle());
+            out.writeString(article.getCategory());
+            out.writeString(article.getContent());
+            out.writeString(article.isRedirect() ? article.getRedirect() : "");
+            writeTokens(entry.getTitleTokens());
+            writeTokens(entry.getCategoryTokens());
+            writeTokens(entry.getContentTokens());
+        }
+
+        private void writeTokens(Tokens tokens) throws IOException {
+            out.writeVInt(tokens.terms.length);
+            for (int i = 0; i < tokens.terms.length; i++) {
+                out.writeVInt(tokens.increments[i]);
+                Integer ord = terms.get(tokens.terms[i]);
+                if (ord == null) {
+                    terms.put(tokens.terms[i], terms.size() + 1);
+                    out.writeVInt(0);
+                    out.writeString(tokens.terms[i]);
+                } else {
+                    out.writeVInt(ord);
+                }
+            }
+            out.writeVInt(tokens.finalIncrement);
+        }
+
+        /**
+         * Completes the cache file & replaces the previous one
+         *
+         * @throws IOException
+         */
+        public void commit() throws IOException {
+            out.writeByte(END);
+            out.close();
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                out.close();
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+
+    /**
+     * Article along with the tokens its title, category & content
+     * analyze to
+     */
+    public static class Entry {
+        private final Article article;
+        private final Tokens titleTokens;
+        private final Tokens categoryTokens;
+        private final Tokens contentTokens;
+
+        private Entry(Article article, Tokens titleTokens, Tokens categoryTokens, Tokens contentTokens) {
+            this.article = article;
+            this.titleTokens = titleTokens;
+            this.categoryTokens = categoryTokens;
+            this.contentTokens = contentTokens;
+        }
+
+        public Article getArticle() {
+            return article;
+        }
+
+        public Tokens getTitleTokens() {
+            return titleTokens;
+        }
+
+        public Tokens getCategoryTokens() {
+            return categoryTokens;
+        }
+
+        public Tokens getContentTokens() {
+            return contentTokens;
+        }
+    }
+
+    /**
+     * Terms & position increments produced by an analysis chain,
+     * replayed as a TokenStream by stream()
+     */
+    public static class Tokens {
+        private final String[] terms;
+        private final int[] increments;
+        // Increment reported by end(), e.g. for trailing stop words
+        private final int finalIncrement;
+
+        private Tokens(String[] terms, int[] increments, int finalIncrement) {
+            this.terms = terms;
+            this.increments = increments;
+            this.finalIncrement = finalIncrement;
+        }
+
+        /**
+         * Utility method used to capture the tokens of the text
+         *
+         * @param analyzer Analyzer to run
+         * @param field Name of the field the text belongs to
+         * @param text Text to analyze
+         * @return Tokens of the text
+         */
+        public static Tokens analyze(Analyzer analyzer, String field, String text) {
+            List<String> terms = new ArrayList<>();
+            List<Integer> increments = new ArrayList<>();
+            try (TokenStream stream = analyzer.tokenStream(field, text)) {
+                CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+                PositionIncrementAttribute posIncAtt = stream.addAttribute(PositionIncrementAttribute.class);
+                stream.reset();
+                while (stream.incrementToken()) {
+                    terms.add(termAtt.toString());
+                    increments.add(posIncAtt.getPositionIncrement());
+                }
+                stream.end();
+                int[] values = new int[increments.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = increments.get(i);
+                }
+                return new Tokens(terms.toArray(new String[0]), values, posIncAtt.getPositionIncrement());
+            } catch (IOException ex) {
+                // Analyzing a String never does I/O
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        public int size() {
+            return terms.length;
+        }
+
+        public TokenStream stream() {
+            return new TokenStream() {
+                private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+                private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+                private int position = 0;
+
+                @Override
+                public boolean incrementToken() {
+                    if (position >= terms.length) {
+                        return false;
+                    }
+                    clearAttributes();
+                    termAtt.setEmpty().append(terms[position]);
+                    posIncAtt.setPositionIncrement(increments[position]);
+                    position++;
+                    return true;
+                }
+
+                @Override
+                public void end() throws IOException {
+                    super.end();
+                    posIncAtt.setPositionIncrement(finalIncrement);
+                }
+
+                @Override
+                public void reset() throws IOException {
+                    super.reset();
+                    position = 0;
+                }
+            };
+        }
+    }
+}
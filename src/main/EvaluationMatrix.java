@@ -0,0 +1,259 @@
+package main;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * EvaluationMatrix answers every question under each combination of
+ * index method & similarity in a single run. Each index is opened once,
+ * the questions are normalized once per index, & the resulting queries
+ * are run through one searcher per similarity sharing the same reader.
+ * With Constants.queryOptimizer on, every cell is also evaluated with
+ * optimized queries & compared to the parsed ones. With two-phase
+ * retrieval on (Constants.rescoreDepth), BM25 queries are also rescored
+ * at each depth of Constants.rescoreCurve.
+ */
+public class EvaluationMatrix {
+    // Rows & columns of the matrix, in menu order
+    public static final String[] INDEX_METHODS = {Constants.NONE, Constants.LEMMA, Constants.STEMMING};
+    public static final String[] QUERY_METHODS = {Constants.BM25, Constants.BOOLEAN, Constants.TF_IDF, Constants.JM};
+
+    private String[] indexMethods;
+    private String[] queryMethods;
+
+    public EvaluationMatrix() {
+        this(INDEX_METHODS, QUERY_METHODS);
+    }
+
+    public EvaluationMatrix(String[] indexMethods, String[] queryMethods) {
+        this.indexMethods = indexMethods;
+        this.queryMethods = queryMethods;
+    }
+
+    /**
+     * Builds any missing index, evaluates all questions for every cell of
+     * the matrix & prints the accuracy table along with timings.
+     *
+     * @throws IOException
+     */
+    public void run() throws IOException {
+        List<Question> questions = Question.load(Constants.pathToQuestions);
+
+        double[][] accuracy = new double[indexMethods.length][queryMethods.length];
+        long[][] searchNanos = new long[indexMethods.length][queryMethods.length];
+        long[] normalizeNanos = new long[indexMethods.length];
+        double[][] optimizedAccuracy = new double[indexMethods.length][queryMethods.length];
+        long[][] optimizedNanos = new long[indexMethods.length][queryMethods.length];
+        long[] optimizeNanos = new long[indexMethods.length];
+        QueryOptimizer[] optimizers = new QueryOptimizer[indexMethods.length];
+        int[] depths = Constants.rescoreDepth > 0 ? parseDepths(Constants.rescoreCurve) : new int[0];
+        double[][] rescoredAccuracy = new double[indexMethods.length][depths.length];
+        long[][] rescoredNanos = new long[indexMethods.length][depths.length];
+
+        for (int row = 0; row < indexMethods.length; row++) {
+            String indexMethod = indexMethods[row];
+            IndexEngine indexEngine = new IndexEngine(indexMethod);
+            System.out.println("Building index (" + methodName(indexMethod) + ")...");
+            indexEngine.buildIndex();
+
+            try (IndexReader reader = QueryEngine.openReader(indexEngine.getShardPaths())) {
+                // Normalize each question once for this index
+                long start = System.nanoTime();
+                QueryEngine parser = new QueryEngine(indexEngine, reader, Constants.BM25, indexMethod);
+                parser.setOptimizer(null);
+                List<Query> queries = buildQueries(parser, questions);
+                normalizeNanos[row] = System.nanoTime() - start;
+                evaluateRow(indexEngine, indexMethod, reader, questions, queries, accuracy[row], searchNanos[row]);
+
+                if (Constants.queryOptimizer) {
+                    start = System.nanoTime();
+                    optimizers[row] = new QueryOptimizer();
+                    parser.setOptimizer(optimizers[row]);
+                    List<Query> optimized = buildQueries(parser, questions);
+                    optimizeNanos[row] = System.nanoTime() - start;
+                    evaluateRow(indexEngine, indexMethod, reader, questions, optimized, optimizedAccuracy[row], optimizedNanos[row]);
+                }
+
+                for (int col = 0; col < depths.length; col++) {
+                    QueryEngine queryEngine = new QueryEngine(indexEngine, reader, Constants.BM25, indexMethod);
+                    queryEngine.setRescore(depths[col], Constants.rescoreBudgetMs);
+                    start = System.nanoTime();
+                    queryEngine.evaluate(questions, queries);
+                    rescoredNanos[row][col] = System.nanoTime() - start;
+                    rescoredAccuracy[row][col] = (double) queryEngine.getCorrectCount() / (double) queryEngine.getTotalCount();
+                }
+            }
+        }
+
+        printTable("Accuracy", accuracy, searchNanos, normalizeNanos, questions.size());
+        if (Constants.queryOptimizer) {
+            printTable("Accuracy with optimized queries", optimizedAccuracy, optimizedNanos, optimizeNanos,
+                    questions.size());
+            printComparison(accuracy, searchNanos, optimizedAccuracy, optimizedNanos);
+            for (int row = 0; row < indexMethods.length; row++) {
+                System.out.println(methodName(indexMethods[row]) + " optimizer: " + optimizers[row].summary());
+            }
+        }
+        if (depths.length > 0) {
+            printCurve(depths, rescoredAccuracy, rescoredNanos, questions.size());
+        }
+    }
+
+    /**
+     * Utility method used to parse a comma-separated list of depths
+     *
+     * @param depths List such as "10,20,50"
+     * @return int[] of the depths, in the given order
+     */
+    private static int[] parseDepths(String depths) {
+        String[] values = depths.split(",");
+        int[] parsed = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            parsed[i] = Integer.parseInt(values[i].trim());
+        }
+        return parsed;
+    }
+
+    /**
+     * Utility method used to build the query of every question
+     *
+     * @param parser QueryEngine of the index building the queries
+     * @param questions Questions to build queries for
+     * @return List of Queries, in the same order as questions
+     */
+    private static List<Query> buildQueries(QueryEngine parser, List<Question> questions) {
+        List<Query> queries = new ArrayList<>(questions.size());
+        for (Question question : questions) {
+            queries.add(parser.buildQuery(question.getCategory(), question.getClue()));
+        }
+        return queries;
+    }
+
+    /**
+     * Evaluates the queries with one searcher per similarity, all sharing
+     * the reader, filling in a row of the matrix
+     */
+    private void evaluateRow(IndexEngine indexEngine, String indexMethod, IndexReader reader, List<Question> questions,
+                             List<Query> queries, double[] accuracy, long[] searchNanos) throws IOException {
+        for (int col = 0; col < queryMethods.length; col++) {
+            QueryEngine queryEngine = new QueryEngine(indexEngine, reader, queryMethods[col], indexMethod);
+            // Single pass, rescoring is evaluated separately
+            queryEngine.setRescore(0, 0);
+            long start = System.nanoTime();
+            queryEngine.evaluate(questions, queries);
+            searchNanos[col] = System.nanoTime() - start;
+            accuracy[col] = (double) queryEngine.getCorrectCount() / (double) queryEngine.getTotalCount();
+        }
+    }
+
+    /**
+     * Prints the method x similarity accuracy table. Each cell shows the
+     * accuracy & the time spent searching; the last column shows the time
+     * spent normalizing the questions for that index.
+     */
+    private void printTable(String title, double[][] accuracy, long[][] searchNanos, long[] normalizeNanos,
+                            int numQuestions) {
+        System.out.println("\n" + title + " over " + numQuestions + " questions (search time)");
+        StringBuilder header = new StringBuilder(String.format("%-12s", "Index"));
+        for (String queryMethod : queryMethods) {
+            header.append(String.format("%-20s", similarityName(queryMethod)));
+        }
+        header.append("Normalize");
+        System.out.println(header);
+
+        for (int row = 0; row < indexMethods.length; row++) {
+            StringBuilder line = new StringBuilder(String.format("%-12s", methodName(indexMethods[row])));
+            for (int col = 0; col < queryMethods.length; col++) {
+                line.append(String.format("%-20s", String.format("%.2f (%.2fs)",
+                        accuracy[row][col], searchNanos[row][col] / 1e9)));
+            }
+            line.append(String.format("%.2fs", normalizeNanos[row] / 1e9));
+            System.out.println(line);
+        }
+    }
+
+    /**
+     * Prints, for every cell, the accuracy change & search speedup of the
+     * optimized queries over the parsed ones
+     */
+    private void printComparison(double[][] accuracy, long[][] searchNanos,
+                                 double[][] optimizedAccuracy, long[][] optimizedNanos) {
+        System.out.println("\nOptimized vs parsed queries (accuracy change, search speedup)");
+        StringBuilder header = new StringBuilder(String.format("%-12s", "Index"));
+        for (String queryMethod : queryMethods) {
+            header.append(String.format("%-20s", similarityName(queryMethod)));
+        }
+        System.out.println(header);
+
+        for (int row = 0; row < indexMethods.length; row++) {
+            StringBuilder line = new StringBuilder(String.format("%-12s", methodName(indexMethods[row])));
+            for (int col = 0; col < queryMethods.length; col++) {
+                double speedup = optimizedNanos[row][col] == 0 ? 0
+                        : (double) searchNanos[row][col] / optimizedNanos[row][col];
+                line.append(String.format("%-20s", String.format("%+.2f (%.2fx)",
+                        optimizedAccuracy[row][col] - accuracy[row][col], speedup)));
+            }
+            System.out.println(line);
+        }
+    }
+
+    /**
+     * Prints the accuracy & search time of two-phase retrieval (BM25
+     * first pass, then rescore()) at each depth, to be compared with the
+     * single pass table
+     */
+    private void printCurve(int[] depths, double[][] accuracy, long[][] searchNanos, int numQuestions) {
+        System.out.println(String.format("\nTwo-phase retrieval over %d questions: BM25 top N rescored by category, "
+                + "proximity & Jelinek Mercer, %.1fms budget (search time)", numQuestions, Constants.rescoreBudgetMs));
+        StringBuilder header = new StringBuilder(String.format("%-12s", "Index"));
+        for (int depth : depths) {
+            header.append(String.format("%-20s", "N=" + depth));
+        }
+        System.out.println(header);
+
+        for (int row = 0; row < indexMethods.length; row++) {
+            StringBuilder line = new StringBuilder(String.format("%-12s", methodName(indexMethods[row])));
+            for (int col = 0; col < depths.length; col++) {
+                line.append(String.format("%-20s", String.format("%.2f (%.2fs)",
+                        accuracy[row][col], searchNanos[row][col] / 1e9)));
+            }
+            System.out.println(line);
+        }
+    }
+
+    /**
+     * Utility method used to get the display name of an index method
+     *
+     * @param indexMethod One of the Constants index methods
+     * @return String name as shown in the build menu
+     */
+    public static String methodName(String indexMethod) {
+        if (indexMethod.equals(Constants.LEMMA)) {
+            return "Lemma";
+        } else if (indexMethod.equals(Constants.STEMMING)) {
+            return "Stemming";
+        }
+        return "None";
+    }
+
+    /**
+     * Utility method used to get the display name of a query method
+     *
+     * @param queryMethod One of the Constants query methods
+     * @return String name as shown in the query menu
+     */
+    public static String similarityName(String queryMethod) {
+        if (queryMethod.equals(Constants.BOOLEAN)) {
+            return "Boolean";
+        } else if (queryMethod.equals(Constants.TF_IDF)) {
+            return "TF-IDF";
+        } else if (queryMethod.equals(Constants.JM)) {
+            return "Jelinek Mercer";
+        }
+        return "BM25";
+    }
+}
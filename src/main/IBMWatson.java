@@ -1,19 +1,50 @@
 package main;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Scanner;
 
 public class IBMWatson {
 
     public static void main(String[] args) {
+        // Server mode keeps stdout for responses only
+        if (args.length > 0 && args[0].equals("serve")) {
+            runServer(args.length > 1 ? Integer.parseInt(args[1]) : -1);
+            return;
+        }
+
+        // Worker of a partitioned build, started by the coordinator below
+        if (args.length > 3 && args[0].equals("build-partition")) {
+            runPartition(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+            return;
+        }
+
         System.out.println("Welcome to IBM Watson Lite!\n");
 
+        // Non-interactive modes
+        if (args.length > 0 && args[0].equals("matrix")) {
+            runMatrix();
+            return;
+        }
+        if (args.length > 1 && args[0].equals("build-distributed")) {
+            runDistributedBuild(args[1], args.length > 2 ? args[2] : "2");
+            return;
+        }
+
         Scanner sc = new Scanner(System.in);
 
         String goAgain = "y";
         String indexMethod = "";
         String queryMethod = "";
 
+        // Shared across runs, so repeated questions skip normalization
+        QueryCache cache = new QueryCache();
+
         // Continue processing requests until user quits
         while(goAgain.equals("y")) {
             printBuildMenu();
@@ -28,12 +59,15 @@ public class IBMWatson {
                 indexEngine.buildIndex();
 
                 QueryEngine queryEngine = new QueryEngine(indexEngine, queryMethod, indexMethod);
+                queryEngine.setCache(cache);
                 System.out.println("Processing queries...");
                 queryEngine.processQuestions();
+                Metrics.report();
+                Metrics.reset();
 
             } catch (IOException ex) {
                 ex.printStackTrace();
-                System.exit(0);
+                System.exit(1);
             }
 
             System.out.println("Would you like to go again? (y/n)");
@@ -44,6 +78,80 @@ public class IBMWatson {
         System.out.println("\nTerminating program...");
     }
 
+    /**
+     * Evaluates every index method against every query method in a
+     * single pass & prints the resulting accuracy table
+     */
+    public static void runMatrix() {
+        try {
+            new EvaluationMatrix().run();
+            Metrics.report();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            System.exit(0);
+        }
+    }
+
+    /**
+     * Builds the index of the method with local worker processes, once
+     * per worker count, & prints how the build time scales
+     *
+     * @param indexMethod One of Constants.NONE, LEMMA or STEMMING
+     * @param workerCounts Comma-separated numbers of workers, e.g. "1,2,4"
+     */
+    public static void runDistributedBuild(String indexMethod, String workerCounts) {
+        try {
+            int[] counts = Arrays.stream(workerCounts.split(",")).map(String::trim)
+                    .mapToInt(Integer::parseInt).toArray();
+            new PartitionedBuild(indexMethod).runScaling(counts);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Builds one partial index of a partitioned build
+     *
+     * @param indexMethod One of Constants.NONE, LEMMA or STEMMING
+     * @param partition Index of the slice of files to build, from 0
+     * @param numPartitions Number of slices
+     */
+    public static void runPartition(String indexMethod, int partition, int numPartitions) {
+        try {
+            new PartitionedBuild(indexMethod).runWorker(partition, numPartitions);
+        } catch (IOException | RuntimeException ex) {
+            ex.printStackTrace();
+            // Reported to the coordinator, which stops the build
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Serves queries for every index that has been built, as JSON lines
+     * on stdin/stdout, or on the given local port
+     *
+     * @param port Local port to listen on, negative to use stdin/stdout
+     */
+    public static void runServer(int port) {
+        try {
+            QueryServer server = new QueryServer(Constants.NONE, Constants.LEMMA, Constants.STEMMING);
+            Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+            server.start();
+
+            if (port >= 0) {
+                server.serve(port);
+            } else {
+                System.err.println("Reading queries from stdin");
+                server.serve(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)),
+                        new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            System.exit(0);
+        }
+    }
+
     public static void printBuildMenu() {
         System.out.println("How would you like to build the index?");
         System.out.println(" (1) None");
@@ -1,23 +1,45 @@
 package main;
 
 
-import edu.stanford.nlp.simple.Sentence;
+import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
-import org.tartarus.snowball.ext.PorterStemmer;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Version;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Scanner;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 /**
  * IndexEngine is responsible for parsing the given input files
@@ -25,15 +47,36 @@ import java.util.Scanner;
  * as the backbone for IBM Watson.
  */
 public class IndexEngine {
+    // Bump whenever the fields of a Document change, so existing indexes are rebuilt
+    private static final int DOC_VERSION = 2;
+
     // Variables storing the result from above selection(s)
     private String dataPath;
     private String indexMethod;
+    private int numWorkers = Constants.indexWorkers;
+    private int numShards = Constants.indexShards;
+
+    // Files of src/resources to index, null for all of them
+    private List<String> files;
+
+    // Lucene objects, one Directory & IndexWriter per shard
+    private Analyzer analyzer;
+    private Directory[] indexes;
+    private IndexWriter[] writers;
+
+    // Files already in the index
+    private IndexManifest manifest;
 
-    // Lucene objects
-    private StandardAnalyzer analyzer = new StandardAnalyzer();
-    private Directory index;
-    private IndexWriterConfig config;
-    private IndexWriter writer;
+    // Redirects folded into aliases (see AliasTable) & disambiguation pages skipped
+    private AliasTable aliases;
+    private LongAdder foldedRedirects = new LongAdder();
+    private LongAdder skippedDisambiguations = new LongAdder();
+
+    // Parsed & analyzed articles of each source file, null when disabled
+    private CorpusCache corpus;
+    private String corpusName;
+    private LongAdder replayedFiles = new LongAdder();
+    private LongAdder normalizedFiles = new LongAdder();
 
     public IndexEngine(String indexMethod) {
         this.indexMethod = indexMethod;
@@ -46,53 +89,567 @@ public class IndexEngine {
         } else if (indexMethod.equals(Constants.STEMMING)) {
             this.dataPath = Constants.stemmingIndexPath;
         }
+        this.analyzer = createAnalyzer(indexMethod);
+        this.corpusName = dataPath == null ? indexMethod : Paths.get(dataPath).getFileName().toString();
+        setCorpusCache(Constants.corpusCache);
+    }
+
+    /**
+     * Creates the Analyzer implementing the given index method. The same
+     * Analyzer must be used when indexing & when parsing queries.
+     *
+     * @param indexMethod One of Constants.NONE, LEMMA or STEMMING
+     * @return Analyzer for the index method
+     */
+    public static Analyzer createAnalyzer(String indexMethod) {
+        if (indexMethod.equals(Constants.LEMMA)) {
+            return new LemmaAnalyzer();
+        } else if (indexMethod.equals(Constants.STEMMING)) {
+            return new StemmingAnalyzer();
+        }
+        return new StandardAnalyzer();
     }
 
-    public StandardAnalyzer getAnalyzer() {
+    /**
+     * Public accessor of the version of the tokens the index method's
+     * Analyzer produces, which changes whenever its chain does
+     *
+     * @param indexMethod One of Constants.NONE, LEMMA or STEMMING
+     * @return String version of the analysis chain
+     */
+    public static String getAnalysisVersion(String indexMethod) {
+        if (indexMethod.equals(Constants.LEMMA)) {
+            return LemmaAnalyzer.getChainVersion();
+        } else if (indexMethod.equals(Constants.STEMMING)) {
+            return StemmingAnalyzer.getChainVersion();
+        }
+        return "standard lucene-" + Version.LATEST;
+    }
+
+    public Analyzer getAnalyzer() {
         return analyzer;
     }
 
+    /**
+     * Public accessor of the layout of the Documents this engine writes:
+     * their fields, whether stubs are folded & the analysis chain. An
+     * index built with another layout is rebuilt instead of updated.
+     *
+     * @return String layout, e.g. "docs-2 full text stemming-analyzer-1 ..."
+     */
+    public String getLayout() {
+        return "docs-" + DOC_VERSION + (Constants.leanIndex ? " lean" : " full")
+                + (Constants.fieldedIndex ? " fielded" : " text") + (Constants.foldStubs ? " foldStubs" : "")
+                + " " + getAnalysisVersion(indexMethod);
+    }
+
+    /**
+     * Public accessor of the index location. Sharded indexes live in a
+     * separate directory per shard count, so changing the number of
+     * shards never mixes Documents routed differently.
+     *
+     * @return Path of the index, or of the directory holding its shards
+     */
     public String getIndexPath() {
-        return dataPath;
+        return numShards > 1 ? dataPath + "-shards" + numShards : dataPath;
+    }
+
+    /**
+     * Public accessor of the location of every shard
+     *
+     * @return Paths of the shard indexes, in shard order
+     */
+    public String[] getShardPaths() {
+        if (numShards <= 1) {
+            return new String[] {dataPath};
+        }
+        String[] paths = new String[numShards];
+        for (int i = 0; i < numShards; i++) {
+            paths[i] = getIndexPath() + "/shard-" + i;
+        }
+        return paths;
+    }
+
+    /**
+     * Public accessor of the alias table of the index, loaded from the
+     * index directory on first use
+     *
+     * @return AliasTable of the index, empty if it has none
+     * @throws UncheckedIOException if the table cannot be read
+     */
+    public synchronized AliasTable getAliases() {
+        if (aliases == null) {
+            try {
+                aliases = AliasTable.load(getAliasPath());
+            } catch (IOException ex) {
+                // Fails the build (or the worker of a PartitionedBuild) instead of exiting with status 0
+                throw new UncheckedIOException(ex);
+            }
+        }
+        return aliases;
+    }
+
+    private Path getAliasPath() {
+        return Paths.get(getIndexPath(), AliasTable.FILE_NAME);
+    }
+
+    public IndexWriter[] getIndexWriters() {
+        return writers;
+    }
+
+    public int getNumShards() {
+        return numShards;
+    }
+
+    /**
+     * Sets the number of shards the index is split into. Must match
+     * between building & querying an index.
+     *
+     * @param numShards Number of shards, 1 for a single index
+     */
+    public void setNumShards(int numShards) {
+        this.numShards = Math.max(1, numShards);
+    }
+
+    /**
+     * Utility method used to route a Document to its shard
+     *
+     * @param title Title of the Document
+     * @param numShards Number of shards
+     * @return int shard index
+     */
+    public static int shardOf(String title, int numShards) {
+        return Math.floorMod(title.hashCode(), numShards);
+    }
+
+    /**
+     * Sets the location of the index, e.g. a partial index built by a
+     * PartitionedBuild worker
+     *
+     * @param dataPath Path of the index
+     */
+    public void setDataPath(String dataPath) {
+        this.dataPath = dataPath;
+    }
+
+    /**
+     * Enables or disables the corpus cache (see CorpusCache). The cache
+     * of an index method is shared by all its indexes, wherever they are.
+     *
+     * @param enabled Whether to replay & record analyzed articles
+     */
+    public void setCorpusCache(boolean enabled) {
+        this.corpus = enabled ? new CorpusCache(corpusName, indexMethod, analyzer) : null;
     }
 
-    public IndexWriter getIndexWriter() {
-        return writer;
+    /**
+     * Restricts buildIndex() to the given files of src/resources
+     *
+     * @param files Names of the wiki files to index, null for all of them
+     */
+    public void setFiles(List<String> files) {
+        this.files = files;
+    }
+
+    public int getNumWorkers() {
+        return numWorkers;
+    }
+
+    /**
+     * Sets the number of threads used to parse & normalize the wiki
+     * files during buildIndex(). A value of 1 builds serially.
+     *
+     * @param numWorkers Number of parse/NLP worker threads
+     */
+    public void setNumWorkers(int numWorkers) {
+        this.numWorkers = Math.max(1, numWorkers);
+    }
+
+    /**
+     * Creates the IndexWriterConfig used to build indexes, applying the
+     * RAM buffer, flush, merge & compound file settings of Constants
+     *
+     * @param analyzer Analyzer of the index method
+     * @return IndexWriterConfig for the index
+     */
+    public static IndexWriterConfig createConfig(Analyzer analyzer) {
+        IndexWriterConfig config = new IndexWriterConfig(analyzer);
+        config.setRAMBufferSizeMB(Constants.indexRamBufferMB);
+        config.setMaxBufferedDocs(Constants.indexMaxBufferedDocs);
+        config.setUseCompoundFile(Constants.indexCompoundFile);
+
+        ConcurrentMergeScheduler scheduler = new ConcurrentMergeScheduler() {
+            @Override
+            protected void doMerge(IndexWriter writer, MergePolicy.OneMerge merge) throws IOException {
+                long start = Metrics.start();
+                super.doMerge(writer, merge);
+                Metrics.record(Metrics.Stage.MERGE, start);
+            }
+        };
+        if (Constants.indexMergeThreads > 0) {
+            // Allow a few merges to queue up behind the running ones
+            scheduler.setMaxMergesAndThreads(Constants.indexMergeThreads + 5, Constants.indexMergeThreads);
+        }
+        config.setMergeScheduler(scheduler);
+
+        TieredMergePolicy mergePolicy = new TieredMergePolicy();
+        mergePolicy.setSegmentsPerTier(Constants.mergeSegmentsPerTier);
+        mergePolicy.setMaxMergeAtOnce(Constants.mergeMaxMergeAtOnce);
+        mergePolicy.setMaxMergedSegmentMB(Constants.mergeMaxSegmentMB);
+        mergePolicy.setNoCFSRatio(Constants.indexCompoundFile ? TieredMergePolicy.DEFAULT_NO_CFS_RATIO : 0.0);
+        config.setMergePolicy(mergePolicy);
+        return config;
     }
 
     /**
      * Parses the provided wiki-files stored in the designated
-     * directory & processes them to build the Index.
+     * directory & processes them to build the Index. Builds are
+     * incremental: files recorded in the index's manifest & unchanged
+     * since are skipped, every Document of a changed file is replaced, &
+     * a commit is made after every file so an interrupted build resumes
+     * from the last completed file. An index of another layout (see
+     * getLayout()) is rebuilt from scratch.
      *
      * @throws IOException
      */
     public void buildIndex() throws IOException {
-        index = FSDirectory.open(new File(dataPath).toPath());
-        config = new IndexWriterConfig(analyzer);
-        writer = new IndexWriter(index, config);
-
-        // Extract directory and verify it exists, create otherwise
-        File dir = new File("src/resources");
-        if (!dir.exists()) {
-            dir.mkdir();
+        String[] shardPaths = getShardPaths();
+        indexes = new Directory[numShards];
+        writers = new IndexWriter[numShards];
+        boolean indexExists = false;
+        for (int i = 0; i < numShards; i++) {
+            indexes[i] = FSDirectory.open(new File(shardPaths[i]).toPath());
+            indexExists |= DirectoryReader.indexExists(indexes[i]);
         }
+        // Shards are committed in order, so the last one only lists files complete in all of them
+        Directory lastShard = indexes[numShards - 1];
+        manifest = DirectoryReader.indexExists(lastShard) ? IndexManifest.read(lastShard) : new IndexManifest();
 
-        if (!DirectoryReader.indexExists(index)) {
-            // For files in directory
-            String filePath;
-            int i =0;
-            for(String file : dir.list()) {
-                filePath = "src/resources/" + file;
-                System.out.println(i + " File: " + filePath);
-                parseFile(filePath);
-                i++;
+        // Documents of another layout cannot be mixed with new ones, start over
+        boolean rebuild = indexExists && !getLayout().equals(manifest.getLayout());
+        if (rebuild) {
+            String previous = manifest.getLayout() == null ? "not recorded" : manifest.getLayout();
+            System.out.println("\nIndex at: '" + getIndexPath() + "' was built with another layout ("
+                    + previous + "), rebuilding it");
+            manifest = new IndexManifest();
+            getAliases().clear();
+            indexExists = false;
+        }
+        manifest.setLayout(getLayout());
+        for (int i = 0; i < numShards; i++) {
+            IndexWriterConfig config = createConfig(analyzer);
+            if (rebuild) {
+                config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
             }
-        } else {
-            System.out.println("\nIndex already exists at: '" + dataPath + "'");
-            System.out.println("If you wish to rebuild index, please delete existing index.\n");
+            writers[i] = new IndexWriter(indexes[i], config);
         }
-        writer.close();
-        index.close();
+        long buildStart = System.nanoTime();
+        try {
+            // Extract directory and verify it exists, create otherwise
+            File dir = new File("src/resources");
+            if (!dir.exists()) {
+                dir.mkdir();
+            }
+
+            // Only index files that are new or changed since the last commit
+            String[] sources = files == null ? dir.list() : files.toArray(new String[0]);
+            List<String> pending = new ArrayList<>();
+            for (String file : sources) {
+                if (!manifest.isCurrent(file, Paths.get("src/resources", file))) {
+                    pending.add(file);
+                }
+            }
+
+            if (!pending.isEmpty()) {
+                if (indexExists) {
+                    System.out.println("\nUpdating index at: '" + getIndexPath() + "' (" + pending.size() + " new or changed files, "
+                            + (sources.length - pending.size()) + " up to date)");
+                }
+
+                // Articles of changed (or partially indexed) files replace all their old versions, as in a full build
+                if (indexExists) {
+                    for (String file : pending) {
+                        for (IndexWriter writer : writers) {
+                            writer.deleteDocuments(new Term("file", file));
+                        }
+                    }
+                }
+                if (numWorkers > 1) {
+                    buildIndexParallel(pending);
+                } else {
+                    // For files in directory
+                    String filePath;
+                    int i =0;
+                    for(String file : pending) {
+                        filePath = "src/resources/" + file;
+                        System.out.println(i + " File: " + filePath);
+                        try {
+                            parseFile(filePath);
+                        } catch (UncheckedIOException ex) {
+                            throw new IOException("Could not index " + file, ex.getCause());
+                        }
+                        commitFile(file);
+                        i++;
+                    }
+                }
+                int numDocs = 0;
+                for (IndexWriter writer : writers) {
+                    numDocs += writer.getDocStats().numDocs;
+                }
+                System.out.println("Indexed " + numDocs + " documents" + (numShards > 1 ? " in " + numShards + " shards" : ""));
+                if (Constants.foldStubs) {
+                    System.out.println("Folded " + foldedRedirects.sum() + " redirects into " + getAliases().size()
+                            + " aliases, skipped " + skippedDisambiguations.sum() + " disambiguation pages");
+                }
+                if (corpus != null) {
+                    System.out.println("Corpus cache: replayed " + replayedFiles.sum() + " files, parsed & analyzed "
+                            + normalizedFiles.sum() + " files");
+                }
+            } else {
+                System.out.println("\nIndex at: '" + getIndexPath() + "' is up to date (" + manifest.size() + " files)");
+                System.out.println("New or changed files in src/resources will be indexed on the next build.\n");
+            }
+            if (Constants.indexForceMerge > 0) {
+                long mergeStart = System.nanoTime();
+                for (IndexWriter writer : writers) {
+                    writer.forceMerge(Constants.indexForceMerge);
+                }
+                System.out.println(String.format("Force merged to at most %d segments per shard in %.2fs",
+                        Constants.indexForceMerge, (System.nanoTime() - mergeStart) / 1e9));
+            }
+            commit();
+        } catch (IOException | RuntimeException ex) {
+            // Files committed so far are kept, the next build resumes after them
+            rollback();
+            throw ex;
+        }
+
+        int segments = 0;
+        long size = 0;
+        for (int i = 0; i < numShards; i++) {
+            writers[i].close();
+            segments += SegmentInfos.readLatestCommit(indexes[i]).size();
+            size += sizeOf(indexes[i]);
+            indexes[i].close();
+        }
+        System.out.println(String.format("Index build took %.2fs, %d segments, %.1f MB (%s layout)",
+                (System.nanoTime() - buildStart) / 1e9, segments, size / 1048576.0,
+                Constants.leanIndex ? "lean" : "full"));
+        printNormalizationCache(System.out);
+    }
+
+    /**
+     * Utility method used to close the shards after a failed build,
+     * dropping the Documents written since the last commit
+     */
+    private void rollback() {
+        for (int i = 0; i < numShards; i++) {
+            try {
+                writers[i].rollback();
+                indexes[i].close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Saves the token normalization caches & prints their hit rates, if
+     * any was used by the analyzer
+     *
+     * @param out Stream to print the summary to
+     */
+    public static void printNormalizationCache(PrintStream out) {
+        NormalizationCache.saveAll();
+        String summary = NormalizationCache.summaryAll();
+        if (!summary.isEmpty()) {
+            out.println("Normalization cache: " + summary);
+        }
+    }
+
+    /**
+     * Utility method used to compute the size on disk of an index
+     *
+     * @param index Directory holding the index
+     * @return long size in bytes
+     * @throws IOException
+     */
+    public static long sizeOf(Directory index) throws IOException {
+        long size = 0;
+        for (String file : index.listAll()) {
+            size += index.fileLength(file);
+        }
+        return size;
+    }
+
+    /**
+     * Records the file in the manifest & commits, making every Document
+     * of the file durable. Called once all its Documents were written.
+     *
+     * @param file Name of the wiki file inside src/resources
+     * @throws IOException
+     */
+    private void commitFile(String file) throws IOException {
+        manifest.record(file, Paths.get("src/resources", file));
+        commit();
+        Metrics.increment(Metrics.Counter.FILES);
+    }
+
+    private void commit() throws IOException {
+        long start = Metrics.start();
+        // Saved first, so it always covers the files listed by the manifest
+        getAliases().save(getAliasPath());
+        for (IndexWriter writer : writers) {
+            writer.setLiveCommitData(manifest.toUserData().entrySet());
+            writer.commit();
+        }
+        Metrics.record(Metrics.Stage.COMMIT, start);
+        Metrics.increment(Metrics.Counter.COMMITS);
+    }
+
+    /**
+     * Builds the index using a pool of numWorkers threads that parse &
+     * normalize files concurrently. Finished Documents are handed over a
+     * bounded queue to the calling thread, which feeds them to the shards'
+     * IndexWriters & commits each file once all its Documents are written.
+     * Prints the throughput of both stages once done. A file that fails
+     * to parse is never committed & fails the build once the other files
+     * are written; a failing write stops the parsers.
+     *
+     * @param files Names of the wiki files inside src/resources
+     * @throws IOException
+     */
+    private void buildIndexParallel(List<String> files) throws IOException {
+        final QueuedItem endOfInput = new QueuedItem(null, null);
+        BlockingQueue<QueuedItem> queue = new ArrayBlockingQueue<>(Constants.indexQueueCapacity);
+        ExecutorService parsers = Executors.newFixedThreadPool(numWorkers);
+        AtomicInteger filesDone = new AtomicInteger();
+        LongAdder parsedDocs = new LongAdder();
+
+        long start = System.nanoTime();
+        List<Future<?>> tasks = new ArrayList<>(files.size());
+        for (String file : files) {
+            String filePath = "src/resources/" + file;
+            tasks.add(parsers.submit(() -> {
+                parseFile(filePath, doc -> {
+                    parsedDocs.increment();
+                    enqueue(queue, new QueuedItem(doc, null));
+                });
+                // Queued after all the file's Documents
+                enqueue(queue, new QueuedItem(null, file));
+                System.out.println(filesDone.getAndIncrement() + " File: " + filePath);
+            }));
+        }
+        parsers.shutdown();
+
+        // Signal the write stage once every parser has finished
+        long[] parseEnd = new long[1];
+        Thread closer = new Thread(() -> {
+            try {
+                parsers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                parseEnd[0] = System.nanoTime();
+                queue.put(endOfInput);
+            } catch (InterruptedException ex) {
+                // The write stage failed & no longer reads the queue
+                Thread.currentThread().interrupt();
+            }
+        });
+        closer.start();
+
+        // Write stage: drain the queue into the (thread-safe) IndexWriter
+        long writeNanos = 0;
+        int writtenDocs = 0;
+        boolean written = false;
+        try {
+            QueuedItem item;
+            while ((item = queue.take()) != endOfInput) {
+                long writeStart = System.nanoTime();
+                if (item.doc != null) {
+                    writeDoc(item.doc);
+                    writtenDocs++;
+                } else {
+                    commitFile(item.finishedFile);
+                }
+                writeNanos += System.nanoTime() - writeStart;
+            }
+            closer.join();
+            written = true;
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while building index", ex);
+        } finally {
+            if (!written) {
+                // Unblock the parsers waiting on the queue & the closer waiting on them
+                parsers.shutdownNow();
+                queue.clear();
+                closer.interrupt();
+            }
+        }
+        long end = System.nanoTime();
+
+        // Every parser is done, surface the first failure
+        for (int i = 0; i < tasks.size(); i++) {
+            try {
+                tasks.get(i).get();
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause() instanceof UncheckedIOException ? ex.getCause().getCause() : ex.getCause();
+                throw new IOException("Could not index " + files.get(i), cause);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while building index", ex);
+            }
+        }
+
+        System.out.println("Parse/NLP stage: " + formatRate(parsedDocs.sum(), parseEnd[0] - start)
+                + " (" + numWorkers + " workers)");
+        System.out.println("Write stage:     " + formatRate(writtenDocs, writeNanos) + " (busy time)");
+        System.out.println("Total:           " + formatRate(writtenDocs, end - start));
+    }
+
+    /**
+     * Item handed from the parse stage to the write stage: either a
+     * Document to write, or the name of a file whose Documents have all
+     * been queued
+     */
+    private static class QueuedItem {
+        private final Document doc;
+        private final String finishedFile;
+
+        private QueuedItem(Document doc, String finishedFile) {
+            this.doc = doc;
+            this.finishedFile = finishedFile;
+        }
+    }
+
+    /**
+     * Utility method used to block until the item can be placed on
+     * the queue feeding the write stage
+     *
+     * @param queue Queue shared between the parse & write stages
+     * @param item Item to hand over
+     */
+    private static void enqueue(BlockingQueue<QueuedItem> queue, QueuedItem item) {
+        try {
+            queue.put(item);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing document", ex);
+        }
+    }
+
+    /**
+     * Utility method used to format a docs/sec throughput figure
+     *
+     * @param docs Number of documents processed
+     * @param nanos Elapsed time in nanoseconds
+     * @return String summary of the throughput
+     */
+    static String formatRate(long docs, long nanos) {
+        double seconds = nanos / 1e9;
+        double rate = seconds > 0 ? docs / seconds : 0;
+        return String.format("%d docs in %.2fs = %.1f docs/sec", docs, seconds, rate);
     }
 
     /**
@@ -100,46 +657,103 @@ public class IndexEngine {
      * content as Document inside Index
      *
      * @param filePath String representation of path to file
+     * @throws UncheckedIOException if the file cannot be read or indexed
      */
     public void parseFile(String filePath) {
-        try (Scanner sc = new Scanner(new File(filePath))) {
-            String title = "";
-            String category = "";
-            String header = "";
-            String text = "";
-            StringBuilder contentSB = new StringBuilder();
-
-            while (sc.hasNextLine()) {
-                String lineToProcess = sc.nextLine().trim();
-
-                // Pre-processing to extract title & other info
-                if (isTitle(lineToProcess)) {
-                    if (!title.isEmpty()) {
-                        // New title detected, add current data & reset
-                        addDoc(writer, title, category.toLowerCase(), contentSB.toString().toLowerCase());
-                        title = "";
-                        category = "";
-                        header = "";
-                        text = "";
-                        contentSB = new StringBuilder();
+        parseFile(filePath, this::writeDoc);
+    }
+
+    /**
+     * Parses the individual file containing wiki data & hands each
+     * generated Document to the given consumer. With the corpus cache
+     * on, the file's cached tokens are replayed when they are current,
+     * & cached for the next build otherwise.
+     *
+     * @param filePath String representation of path to file
+     * @param sink Consumer receiving each parsed Document
+     * @throws UncheckedIOException if the file cannot be read, or the
+     *         sink cannot write a Document
+     */
+    public void parseFile(String filePath, Consumer<Document> sink) {
+        Path source = Paths.get(filePath);
+        String file = source.getFileName().toString();
+        try {
+            if (corpus == null) {
+                try (WikiParser parser = new WikiParser(source)) {
+                    while (parser.hasNext()) {
+                        Article article = parser.next();
+                        if (!isStub(article)) {
+                            sink.accept(withFile(createDoc(article.getTitle(), article.getCategory(),
+                                    article.getContent()), file));
+                        }
                     }
-                    title = extractTitle(lineToProcess);
-                } else if (isCategory(lineToProcess)) {
-                    category = extractCategory(lineToProcess);
-                } else if (isHeader(lineToProcess)) {
-                    header = extractHeader(lineToProcess);
-                    contentSB.append(header + " ");
-                } else {
-                    text = sanitize(lineToProcess);
-                    contentSB.append(text + " ");
                 }
+            } else if (corpus.replay(source, entry -> {
+                if (!isStub(entry.getArticle())) {
+                    sink.accept(withFile(createDoc(entry), file));
+                }
+            })) {
+                replayedFiles.increment();
+            } else {
+                try (WikiParser parser = new WikiParser(source); CorpusCache.Writer writer = corpus.create(source)) {
+                    while (parser.hasNext()) {
+                        CorpusCache.Entry entry = corpus.analyze(parser.next());
+                        writer.add(entry);
+                        if (!isStub(entry.getArticle())) {
+                            sink.accept(withFile(createDoc(entry), file));
+                        }
+                    }
+                    writer.commit();
+                }
+                normalizedFiles.increment();
             }
+        } catch (IOException ex) {
+            // Fails the build (or the worker's Future) instead of the whole JVM
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Utility method used to record the source file of a Document, so an
+     * incremental build can replace every Document of a changed file
+     *
+     * @param doc Document created from an Article of the file
+     * @param file Name of the wiki file
+     * @return Document, with its file field added
+     */
+    private static Document withFile(Document doc, String file) {
+        doc.add(new StringField("file", file, Field.Store.NO));
+        return doc;
+    }
 
-            // Wiki done finished, add items
-            addDoc(writer, title, category.toLowerCase(), contentSB.toString().toLowerCase());
-        } catch (FileNotFoundException ex) {
-            ex.printStackTrace();
-            System.exit(0);
+    /**
+     * Utility method used to fold the article if it is a #REDIRECT stub
+     * or a disambiguation page, see foldStub()
+     *
+     * @param article Parsed Article
+     * @return boolean true if the article was folded & must not be indexed
+     */
+    private boolean isStub(Article article) {
+        if (Constants.foldStubs && (article.isRedirect() || article.isDisambiguation())) {
+            foldStub(article);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records a #REDIRECT stub in the alias table, or skips a
+     * disambiguation page. A Document the article had in an earlier
+     * build was deleted along with the rest of its file's.
+     *
+     * @param article Redirect or disambiguation Article
+     */
+    private void foldStub(Article article) {
+        if (article.isRedirect()) {
+            getAliases().put(article.getTitle().trim(), article.getRedirect());
+            foldedRedirects.increment();
+        } else {
+            skippedDisambiguations.increment();
         }
     }
 
@@ -244,63 +858,94 @@ public class IndexEngine {
      * @param content Parsed String Content (text + header) from wiki data
      */
     public void addDoc(IndexWriter writer, String title, String category, String content) {
-        // Trim whitespace before processing
-        title = title.trim();
-        category = category.trim();
-        content = content.trim();
-
-        // Pre-process params for empty fields
-        if (category.isEmpty()) {
-            category = ".";
-        }
-        if (content.isEmpty()) {
-            content = ".";
-        }
+        writeDoc(writer, createDoc(title, category, content));
+    }
+
+    /**
+     * Creates the Document containing the Title, Category, and Content
+     *
+     * @param title Parse String Title from wiki data
+     * @param category Parsed String Category from wiki data
+     * @param content Parsed String Content (text + header) from wiki data
+     * @return Document ready to be added to the index
+     */
+    public Document createDoc(String title, String category, String content) {
+        // Trim whitespace & pre-process params for empty fields
+        return createDoc(title.trim(), CorpusCache.orDefault(category), CorpusCache.orDefault(content), null);
+    }
 
-        // Use StringBuilders to aggregate terms below
-        StringBuilder categorySB = new StringBuilder();
-        StringBuilder contentSB = new StringBuilder();
+    /**
+     * Creates the Document of an Article analyzed by the CorpusCache,
+     * indexing its tokens as they are instead of running the Analyzer
+     *
+     * @param entry Article & its tokens
+     * @return Document ready to be added to the index
+     */
+    public Document createDoc(CorpusCache.Entry entry) {
+        Article article = entry.getArticle();
+        return createDoc(article.getTitle(), article.getCategory(), article.getContent(), entry);
+    }
 
-        if (indexMethod.equals(Constants.LEMMA)) {
-            // Aggregate lemmas of category & content
-            for (String lemma: new Sentence(category).lemmas()) {
-                categorySB.append(lemma + " ");
-            }
-            for (String lemma: new Sentence(content).lemmas()) {
-                contentSB.append(lemma + " ");
-            }
-        } else if (indexMethod.equals(Constants.STEMMING)) {
-            // Use stemmer to stem category & content
-            PorterStemmer stemmer = new PorterStemmer();
-            for (String term: new Sentence(category).words()) {
-                stemmer.setCurrent(term);
-                stemmer.stem();
-                categorySB.append(stemmer.getCurrent() + " ");
-            }
-            for (String term: new Sentence(content).words()) {
-                stemmer.setCurrent(term);
-                stemmer.stem();
-                contentSB.append(stemmer.getCurrent() + " ");
-            }
+    private Document createDoc(String title, String category, String content, CorpusCache.Entry tokens) {
+        // Create document & add to index. Lemmatization/Stemming is
+        // applied by the Analyzer (or was, for cached tokens), the text
+        // field simply holds the title, category & content as consecutive values.
+        Document doc = new Document();
+        Field.Store store = Constants.leanIndex ? Field.Store.NO : Field.Store.YES;
+
+        doc.add(new StringField("title", title, store));
+        if (Constants.leanIndex) {
+            // Results only need the title, read from doc values
+            doc.add(new SortedDocValuesField("title", new BytesRef(title)));
+        }
+        addText(doc, "category", category, tokens == null ? null : tokens.getCategoryTokens(), store);
+
+        if (Constants.fieldedIndex) {
+            // Title & category are only inverted in their own fields, see QueryEngine.buildFieldedQuery()
+            addText(doc, "titleText", title, tokens == null ? null : tokens.getTitleTokens(), Field.Store.NO);
+            addText(doc, "body", content, tokens == null ? null : tokens.getContentTokens(), store);
         } else {
-            // Default: Process without Lemma/Stemming, append as-is
-            categorySB.append(category);
-            contentSB.append(content);
+            addText(doc, "text", title, tokens == null ? null : tokens.getTitleTokens(), store);
+            addText(doc, "text", category, tokens == null ? null : tokens.getCategoryTokens(), store);
+            addText(doc, "text", content, tokens == null ? null : tokens.getContentTokens(), store);
         }
 
-        // Create document & add to index
-        Document doc = new Document();
+        return doc;
+    }
 
-        String textAttr = title + " " + categorySB.toString() + " " + contentSB.toString();
-        doc.add(new StringField("title", title, Field.Store.YES));
-        doc.add(new TextField("category", categorySB.toString(), Field.Store.YES));
-        doc.add(new TextField("text", textAttr, Field.Store.YES));
+    /**
+     * Utility method used to add a text field, analyzed by the IndexWriter
+     * or made of already analyzed tokens
+     *
+     * @param doc Document to add the field to
+     * @param name Name of the field
+     * @param value Text of the field
+     * @param tokens Tokens of the text, null to analyze it
+     * @param store Whether the text is stored
+     */
+    private static void addText(Document doc, String name, String value, CorpusCache.Tokens tokens, Field.Store store) {
+        if (tokens == null) {
+            doc.add(new TextField(name, value, store));
+            return;
+        }
+        if (store == Field.Store.YES) {
+            doc.add(new StoredField(name, value));
+        }
+        doc.add(new Field(name, tokens.stream(), TextField.TYPE_NOT_STORED));
+    }
+
+    private void writeDoc(Document doc) {
+        writeDoc(writers[shardOf(doc.get("title"), numShards)], doc);
+    }
 
+    private void writeDoc(IndexWriter writer, Document doc) {
         try {
+            long start = Metrics.start();
             writer.addDocument(doc);
+            Metrics.record(Metrics.Stage.ADD_DOC, start);
+            Metrics.increment(Metrics.Counter.DOCS);
         } catch (IOException ex) {
-            ex.printStackTrace();
-            System.exit(0);
+            throw new UncheckedIOException(ex);
         }
     }
 }
@@ -0,0 +1,152 @@
+package main;
+
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * IndexManifest records which source files have been fully indexed,
+ * along with their size, modification time & checksum, & the layout the
+ * index was built with (see IndexEngine.getLayout()). It is stored in
+ * the user data of every index commit, so an index always knows exactly
+ * which files it contains, even after an interrupted build.
+ */
+public class IndexManifest {
+    // Prefix of the commit user data keys holding file entries
+    private static final String KEY_PREFIX = "file:";
+
+    // Commit user data key holding the layout
+    private static final String LAYOUT_KEY = "layout";
+
+    private Map<String, String> entries = new HashMap<>();
+    private String layout;
+
+    /**
+     * Reads the manifest stored with the latest commit of the index
+     *
+     * @param index Directory holding an existing index
+     * @return IndexManifest of the latest commit
+     * @throws IOException
+     */
+    public static IndexManifest read(Directory index) throws IOException {
+        IndexManifest manifest = new IndexManifest();
+        Map<String, String> userData = SegmentInfos.readLatestCommit(index).getUserData();
+        for (Map.Entry<String, String> entry : userData.entrySet()) {
+            if (entry.getKey().startsWith(KEY_PREFIX)) {
+                manifest.entries.put(entry.getKey().substring(KEY_PREFIX.length()), entry.getValue());
+            }
+        }
+        manifest.layout = userData.get(LAYOUT_KEY);
+        return manifest;
+    }
+
+    /**
+     * Public accessor of the layout the index was built with
+     *
+     * @return String layout, null for indexes built before it was recorded
+     */
+    public String getLayout() {
+        return layout;
+    }
+
+    public void setLayout(String layout) {
+        this.layout = layout;
+    }
+
+    /**
+     * Adds every file entry of the other manifest, e.g. of a partial index
+     *
+     * @param other IndexManifest to copy the entries of
+     */
+    public void putAll(IndexManifest other) {
+        entries.putAll(other.entries);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Utility method used to determine whether the file is recorded in
+     * the manifest & unchanged since. The checksum is only computed when
+     * the size or modification time differ.
+     *
+     * @param name Name of the file in the manifest
+     * @param path Path to the file on disk
+     * @return boolean true/false evaluation
+     * @throws IOException
+     */
+    public boolean isCurrent(String name, Path path) throws IOException {
+        String recorded = entries.get(name);
+        if (recorded == null) {
+            return false;
+        }
+        String[] parts = recorded.split(",");
+        long size = Files.size(path);
+        long modified = Files.getLastModifiedTime(path).toMillis();
+        if (Long.parseLong(parts[0]) == size && Long.parseLong(parts[1]) == modified) {
+            return true;
+        }
+        if (parts[2].equals(Long.toHexString(checksum(path)))) {
+            // Touched but identical, remember the new timestamp
+            record(name, path);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records the current size, modification time & checksum of the file
+     *
+     * @param name Name of the file in the manifest
+     * @param path Path to the file on disk
+     * @throws IOException
+     */
+    public void record(String name, Path path) throws IOException {
+        entries.put(name, Files.size(path) + "," + Files.getLastModifiedTime(path).toMillis()
+                + "," + Long.toHexString(checksum(path)));
+    }
+
+    /**
+     * Converts the manifest to commit user data, to be passed to
+     * IndexWriter.setLiveCommitData() before committing
+     *
+     * @return Map of commit user data entries
+     */
+    public Map<String, String> toUserData() {
+        Map<String, String> userData = new HashMap<>();
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            userData.put(KEY_PREFIX + entry.getKey(), entry.getValue());
+        }
+        if (layout != null) {
+            userData.put(LAYOUT_KEY, layout);
+        }
+        return userData;
+    }
+
+    /**
+     * Utility method used to compute the CRC32 checksum of a file
+     *
+     * @param path Path to the file
+     * @return long checksum
+     * @throws IOException
+     */
+    public static long checksum(Path path) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(path)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+}
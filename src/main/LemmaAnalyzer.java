@@ -0,0 +1,45 @@
+package main;
+
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.StopFilter;
+import org.apache.lucene.analysis.StopwordAnalyzerBase;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.util.Version;
+
+/**
+ * Analyzer used for Constants.LEMMA: the StandardAnalyzer chain, split
+ * into sentences by SentenceTokenizer, with a LemmaFilter applied before
+ * stop words are removed.
+ */
+public class LemmaAnalyzer extends StopwordAnalyzerBase {
+    // Bump whenever the chain changes, so cached tokens are rebuilt (see CorpusCache)
+    private static final int VERSION = 2;
+
+    public LemmaAnalyzer() {
+        super(EnglishAnalyzer.ENGLISH_STOP_WORDS_SET);
+    }
+
+    /**
+     * Public accessor of the version of the tokens produced by the chain
+     *
+     * @return String version of the chain & its normalizer
+     */
+    public static String getChainVersion() {
+        return "lemma-analyzer-" + VERSION + " lucene-" + Version.LATEST + " " + Lemmatizer.getVersion();
+    }
+
+    @Override
+    protected TokenStreamComponents createComponents(String fieldName) {
+        SentenceTokenizer source = new SentenceTokenizer();
+        TokenStream result = new LowerCaseFilter(source);
+        result = new LemmaFilter(result, new Lemmatizer());
+        result = new StopFilter(result, stopwords);
+        return new TokenStreamComponents(source, result);
+    }
+
+    @Override
+    protected TokenStream normalize(String fieldName, TokenStream in) {
+        return new LowerCaseFilter(in);
+    }
+}
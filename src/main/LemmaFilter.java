@@ -0,0 +1,121 @@
+package main;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.FlagsAttribute;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * LemmaFilter replaces each token with its lemma. Tokens are buffered
+ * by sentence, as marked by SentenceTokenizer, & whole sentences are
+ * tagged together in batches, so a token's POS tag (& lemma) only
+ * depends on the sentence it belongs to, not on where a batch starts.
+ */
+public final class LemmaFilter extends TokenFilter {
+    // Min number of tokens tagged together, made of whole sentences
+    private static final int BATCH_SIZE = 128;
+
+    // Runs of tokens without sentence punctuation (lists, tables) are cut into sentences of this length
+    private static final int MAX_SENTENCE_LENGTH = 256;
+
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+    private final FlagsAttribute flagsAtt = addAttribute(FlagsAttribute.class);
+    private final Lemmatizer lemmatizer;
+
+    // Current batch of buffered tokens, their sentences & their lemmas
+    private final List<State> states = new ArrayList<>(BATCH_SIZE);
+    private final List<List<String>> sentences = new ArrayList<>();
+    private List<String> sentence;
+    private List<String> lemmas = new ArrayList<>();
+    private int position = 0;
+
+    // First token of the next batch, read while completing the current one
+    private State pending;
+
+    public LemmaFilter(TokenStream input, Lemmatizer lemmatizer) {
+        super(input);
+        this.lemmatizer = lemmatizer;
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+        if (position >= states.size()) {
+            fillBatch();
+            if (states.isEmpty()) {
+                return false;
+            }
+        }
+        restoreState(states.get(position));
+        termAtt.setEmpty().append(lemmas.get(position));
+        position++;
+        return true;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        states.clear();
+        sentences.clear();
+        lemmas = new ArrayList<>();
+        position = 0;
+        pending = null;
+    }
+
+    /**
+     * Utility method used to read the next sentences from the input,
+     * until at least BATCH_SIZE tokens are buffered, & lemmatize them
+     * together
+     *
+     * @throws IOException
+     */
+    private void fillBatch() throws IOException {
+        states.clear();
+        sentences.clear();
+        sentence = null;
+        position = 0;
+
+        if (pending != null) {
+            restoreState(pending);
+            pending = null;
+            add();
+        }
+        while (input.incrementToken()) {
+            if (startsSentence() && states.size() >= BATCH_SIZE) {
+                pending = captureState();
+                break;
+            }
+            add();
+        }
+        if (!states.isEmpty()) {
+            lemmas = lemmatizer.lemmatize(sentences);
+        }
+    }
+
+    /**
+     * Utility method used to buffer the current token, starting a new
+     * sentence if it is flagged as the start of one
+     */
+    private void add() {
+        if (startsSentence()) {
+            sentence = new ArrayList<>();
+            sentences.add(sentence);
+        }
+        sentence.add(termAtt.toString());
+        states.add(captureState());
+    }
+
+    /**
+     * Utility method used to determine whether the current token starts
+     * a sentence, or is cut from an overly long one
+     *
+     * @return boolean true/false evaluation
+     */
+    private boolean startsSentence() {
+        return sentence == null || sentence.size() >= MAX_SENTENCE_LENGTH
+                || (flagsAtt.getFlags() & SentenceTokenizer.SENTENCE_START) != 0;
+    }
+}
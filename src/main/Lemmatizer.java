@@ -0,0 +1,117 @@
+package main;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.DefaultPaths;
+import edu.stanford.nlp.pipeline.StanfordCoreNLP;
+import edu.stanford.nlp.process.Morphology;
+import edu.stanford.nlp.util.ArrayCoreMap;
+import edu.stanford.nlp.util.CoreMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Lemmatizer wraps a long-lived CoreNLP POS tagging pipeline that is
+ * fed sentences which have already been tokenized by a Lucene
+ * Tokenizer (see SentenceTokenizer), so text is only ever tokenized
+ * once. Lemmas are then looked up by (word, tag) in the shared
+ * NormalizationCache, & only computed with CoreNLP's Morphology (as its
+ * lemma annotator does) on a miss.
+ * Instances are NOT thread-safe; each LemmaFilter owns its own (the
+ * tagger models are shared).
+ */
+public class Lemmatizer {
+    // Guards pipeline creation so concurrent threads wait for the first
+    // one to load the models instead of each loading their own copy
+    private static final Object PIPELINE_LOCK = new Object();
+
+    // Bump whenever tagging or lemmatization changes, so cached lemmas & tokens are rebuilt
+    private static final int VERSION = 1;
+
+    // Appended to every sentence before tagging
+    private static final String PERIOD = ".";
+
+    private StanfordCoreNLP pipeline;
+    private Morphology morphology = new Morphology();
+    private NormalizationCache cache = NormalizationCache.lemmas();
+
+    public Lemmatizer() {
+        // Tokens & sentences are supplied by the caller, so the
+        // tokenize/ssplit requirements are not enforced
+        Properties props = new Properties();
+        props.setProperty("annotators", "pos");
+        synchronized (PIPELINE_LOCK) {
+            this.pipeline = new StanfordCoreNLP(props, false);
+        }
+    }
+
+    /**
+     * Public accessor of the version of the lemmas produced: this class,
+     * the CoreNLP release & the POS model
+     *
+     * @return String version, e.g. "lemmatizer-1 corenlp-3.9.2 <model>"
+     */
+    public static String getVersion() {
+        return "lemmatizer-" + VERSION + " corenlp-" + StanfordCoreNLP.class.getPackage().getImplementationVersion()
+                + " " + DefaultPaths.DEFAULT_POS_MODEL;
+    }
+
+    /**
+     * Tags the given sentences in a single pass of the pipeline & returns
+     * the lemmas of their words. Each sentence is tagged on its own, with
+     * a closing period appended as the tagger was trained on punctuated
+     * text, so a word's lemma only depends on the sentence it is in.
+     *
+     * @param sentences Words of each sentence, in order
+     * @return Lemmas of every word of the sentences, in the same order
+     */
+    public List<String> lemmatize(List<List<String>> sentences) {
+        List<CoreLabel> tokens = new ArrayList<>();
+        List<CoreMap> annotated = new ArrayList<>(sentences.size());
+        for (List<String> words : sentences) {
+            List<CoreLabel> sentenceTokens = new ArrayList<>(words.size() + 1);
+            for (String word : words) {
+                sentenceTokens.add(createToken(word));
+            }
+            sentenceTokens.add(createToken(PERIOD));
+            CoreMap sentence = new ArrayCoreMap();
+            sentence.set(CoreAnnotations.TokensAnnotation.class, sentenceTokens);
+            annotated.add(sentence);
+            tokens.addAll(sentenceTokens);
+        }
+
+        Annotation annotation = new Annotation("");
+        annotation.set(CoreAnnotations.TokensAnnotation.class, tokens);
+        annotation.set(CoreAnnotations.SentencesAnnotation.class, annotated);
+        long start = Metrics.start();
+        pipeline.annotate(annotation);
+        Metrics.record(Metrics.Stage.NLP, start);
+
+        List<String> lemmas = new ArrayList<>(tokens.size() - sentences.size());
+        for (CoreMap sentence : annotated) {
+            List<CoreLabel> sentenceTokens = sentence.get(CoreAnnotations.TokensAnnotation.class);
+            // The last token is the appended period
+            for (CoreLabel token : sentenceTokens.subList(0, sentenceTokens.size() - 1)) {
+                String key = NormalizationCache.key(token.word(), token.tag());
+                String lemma = cache.get(key);
+                if (lemma == null) {
+                    lemma = morphology.lemma(token.word(), token.tag());
+                    cache.put(key, lemma);
+                }
+                lemmas.add(lemma);
+            }
+        }
+        return lemmas;
+    }
+
+    private static CoreLabel createToken(String word) {
+        CoreLabel token = new CoreLabel();
+        token.setWord(word);
+        token.setValue(word);
+        token.setOriginalText(word);
+        return token;
+    }
+}
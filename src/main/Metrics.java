@@ -0,0 +1,234 @@
+package main;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics collects per-stage latency histograms & counters across the
+ * indexing & query pipelines. It is switched on with -Dwatson.metrics;
+ * when off, every call is a check of a static final flag that the JIT
+ * removes, so instrumented code pays nothing.
+ *
+ *  long start = Metrics.start();
+ *  ... stage ...
+ *  Metrics.record(Metrics.Stage.PARSE, start);
+ */
+public final class Metrics {
+    public static final boolean enabled = Constants.metricsEnabled;
+
+    /**
+     * Timed stages, in report order
+     */
+    public enum Stage {
+        PARSE("index.parse"),         // WikiParser, reading & classifying lines
+        SANITIZE("index.sanitize"),   // WikiParser, cleaning headers & text
+        NLP("nlp"),                   // CoreNLP lemmatization batches, at index & query time
+        ADD_DOC("index.addDoc"),      // Analysis & inversion of a Document
+        COMMIT("index.commit"),       // IndexWriter flush & commit
+        MERGE("index.merge"),         // Background segment merges
+        NORMALIZE("query.normalize"), // Question analysis of parsed queries
+        QUERY_PARSE("query.parse"),   // Query building, including analysis of fielded & optimized ones
+        SEARCH("query.search"),       // IndexSearcher top-k search
+        FETCH("query.fetch");         // Title retrieval of the hits
+
+        private final String name;
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * Event counters, in report order
+     */
+    public enum Counter {
+        FILES("index.files"),
+        ARTICLES("index.articles"),
+        DOCS("index.docs"),
+        COMMITS("index.commits"),
+        QUESTIONS("query.questions"),
+        HITS("query.hits");
+
+        private final String name;
+
+        Counter(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private static volatile LatencyHistogram[] histograms = newHistograms();
+    private static volatile LongAdder[] counters = newCounters();
+    private static volatile long startNanos = System.nanoTime();
+
+    private Metrics() {
+    }
+
+    /**
+     * Utility method used to timestamp the start of a stage
+     *
+     * @return long start time, 0 when metrics are off
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time elapsed since start() for the stage
+     *
+     * @param stage Stage being timed
+     * @param start Value returned by start()
+     */
+    public static void record(Stage stage, long start) {
+        if (enabled) {
+            histograms[stage.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records an already measured duration for the stage
+     *
+     * @param stage Stage being timed
+     * @param nanos Duration in nanoseconds
+     */
+    public static void recordNanos(Stage stage, long nanos) {
+        if (enabled) {
+            histograms[stage.ordinal()].record(nanos);
+        }
+    }
+
+    public static void increment(Counter counter) {
+        if (enabled) {
+            counters[counter.ordinal()].increment();
+        }
+    }
+
+    public static void add(Counter counter, long value) {
+        if (enabled) {
+            counters[counter.ordinal()].add(value);
+        }
+    }
+
+    public static LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    public static long getCount(Counter counter) {
+        return counters[counter.ordinal()].sum();
+    }
+
+    /**
+     * Starts a new reporting period, discarding everything recorded
+     */
+    public static void reset() {
+        histograms = newHistograms();
+        counters = newCounters();
+        startNanos = System.nanoTime();
+    }
+
+    public static void report() {
+        report(System.out);
+    }
+
+    /**
+     * Prints the stages & counters recorded since the last reset & writes
+     * them as JSON to Constants.metricsFile, if set. Does nothing when
+     * metrics are off.
+     *
+     * @param out Stream to print the report to
+     */
+    public static void report(PrintStream out) {
+        if (!enabled) {
+            return;
+        }
+        double elapsed = (System.nanoTime() - startNanos) / 1e9;
+        out.println(String.format("\nMetrics over %.2fs", elapsed));
+        out.println(String.format("%-16s %10s %10s %10s %10s %10s %10s %12s",
+                "Stage", "Count", "Total(s)", "Mean(ms)", "p50(ms)", "p99(ms)", "Max(ms)", "Rate(/s)"));
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = getHistogram(stage);
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            double total = histogram.getTotalNanos() / 1e9;
+            out.println(String.format("%-16s %10d %10.2f %10.3f %10.3f %10.3f %10.3f %12.1f",
+                    stage.getName(), histogram.getCount(), total, histogram.getMeanNanos() / 1e6,
+                    histogram.getPercentileNanos(50) / 1e6, histogram.getPercentileNanos(99) / 1e6,
+                    histogram.getMaxNanos() / 1e6, total == 0 ? 0 : histogram.getCount() / total));
+        }
+        StringBuilder line = new StringBuilder("Counters:");
+        for (Counter counter : Counter.values()) {
+            line.append(String.format(" %s=%d (%.1f/s)", counter.getName(), getCount(counter),
+                    elapsed == 0 ? 0 : getCount(counter) / elapsed));
+        }
+        out.println(line);
+
+        if (!Constants.metricsFile.isEmpty()) {
+            try (JsonWriter writer = Json.createWriter(new FileWriter(Constants.metricsFile))) {
+                writer.writeObject(toJson(elapsed));
+                out.println("Metrics written to " + Constants.metricsFile);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Utility method used to convert the recorded metrics to JSON
+     *
+     * @param elapsed Seconds since the last reset
+     * @return JsonObject of stages (durations in milliseconds) & counters
+     */
+    public static JsonObject toJson(double elapsed) {
+        JsonObjectBuilder stages = Json.createObjectBuilder();
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = getHistogram(stage);
+            stages.add(stage.getName(), Json.createObjectBuilder()
+                    .add("count", histogram.getCount())
+                    .add("totalSec", histogram.getTotalNanos() / 1e9)
+                    .add("meanMs", histogram.getMeanNanos() / 1e6)
+                    .add("p50Ms", histogram.getPercentileNanos(50) / 1e6)
+                    .add("p90Ms", histogram.getPercentileNanos(90) / 1e6)
+                    .add("p99Ms", histogram.getPercentileNanos(99) / 1e6)
+                    .add("maxMs", histogram.getMaxNanos() / 1e6));
+        }
+        JsonObjectBuilder counts = Json.createObjectBuilder();
+        for (Counter counter : Counter.values()) {
+            counts.add(counter.getName(), getCount(counter));
+        }
+        return Json.createObjectBuilder()
+                .add("elapsedSec", elapsed)
+                .add("stages", stages)
+                .add("counters", counts)
+                .build();
+    }
+
+    private static LatencyHistogram[] newHistograms() {
+        LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        return histograms;
+    }
+
+    private static LongAdder[] newCounters() {
+        LongAdder[] counters = new LongAdder[Counter.values().length];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+        return counters;
+    }
+}
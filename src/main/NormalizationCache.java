@@ -0,0 +1,250 @@
+package main;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * NormalizationCache memoizes the normalized form of tokens: lemmas by
+ * (word, POS tag) & Porter stems by word. One cache of each kind is
+ * shared by every analyzer in the process, i.e. by indexing & querying
+ * alike, & persisted under Constants.normCacheDir so the next build or
+ * server starts warm.
+ *
+ * The vocabulary is Zipfian, so rather than evicting, a full cache stops
+ * admitting new entries: the frequent words are seen (& kept) first.
+ *
+ * Saved files start with the version of the normalizer that filled them
+ * (see Lemmatizer.getVersion(), CachedStemFilter.getVersion()); a file
+ * of another version is deleted instead of loaded.
+ */
+public class NormalizationCache {
+    private static NormalizationCache lemmas;
+    private static NormalizationCache stems;
+
+    // First line of the saved file, followed by the version
+    private static final String VERSION_PREFIX = "#version\t";
+
+    private final String name;
+    private final String version;
+    private final int maxSize;
+    private final Map<String, String> entries = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private volatile boolean changed = false;
+
+    /**
+     * @param name Name of the cache, e.g. "lemma"
+     * @param version Version of the normalizer filling the cache
+     * @param maxSize Largest number of entries
+     */
+    public NormalizationCache(String name, String version, int maxSize) {
+        this.name = name;
+        this.version = version;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Public accessor of the shared (word, POS tag) -> lemma cache,
+     * loaded from disk on first use
+     *
+     * @return NormalizationCache of lemmas
+     */
+    public static synchronized NormalizationCache lemmas() {
+        if (lemmas == null) {
+            lemmas = open("lemma", Lemmatizer.getVersion());
+        }
+        return lemmas;
+    }
+
+    /**
+     * Public accessor of the shared word -> stem cache, loaded from disk
+     * on first use
+     *
+     * @return NormalizationCache of stems
+     */
+    public static synchronized NormalizationCache stems() {
+        if (stems == null) {
+            stems = open("stem", CachedStemFilter.getVersion());
+        }
+        return stems;
+    }
+
+    /**
+     * Persists the shared caches that were used & changed
+     */
+    public static synchronized void saveAll() {
+        try {
+            if (lemmas != null) {
+                lemmas.save(lemmas.getPath());
+            }
+            if (stems != null) {
+                stems.save(stems.getPath());
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Summarizes the shared caches that were used, e.g.
+     * "lemma: size=1200 hits=9000 misses=1200 hitRate=0.88"
+     *
+     * @return String summary, empty if no cache was used
+     */
+    public static synchronized String summaryAll() {
+        StringBuilder summary = new StringBuilder();
+        for (NormalizationCache cache : new NormalizationCache[] {lemmas, stems}) {
+            if (cache != null) {
+                summary.append(summary.length() > 0 ? "; " : "").append(cache.summary());
+            }
+        }
+        return summary.toString();
+    }
+
+    private static NormalizationCache open(String name, String version) {
+        NormalizationCache cache = new NormalizationCache(name, version, Constants.normCacheSize);
+        try {
+            cache.load(cache.getPath());
+        } catch (IOException ex) {
+            System.err.println("Could not load the " + name + " cache, starting cold");
+            ex.printStackTrace();
+        }
+        return cache;
+    }
+
+    /**
+     * Looks up the normalized form of the key
+     *
+     * @param key Word, or word & POS tag (see key())
+     * @return Normalized form, null on a miss
+     */
+    public String get(String key) {
+        String value = entries.get(key);
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return value;
+    }
+
+    public void put(String key, String value) {
+        if (entries.size() < maxSize && entries.putIfAbsent(key, value) == null) {
+            changed = true;
+        }
+    }
+
+    /**
+     * Utility method used to build the key of a word & its POS tag
+     *
+     * @return String key
+     */
+    public static String key(String word, String tag) {
+        return word + '\t' + tag;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public double getHitRate() {
+        long lookups = hits.sum() + misses.sum();
+        return lookups == 0 ? 0 : (double) hits.sum() / lookups;
+    }
+
+    public String summary() {
+        return String.format("%s: size=%d hits=%d misses=%d hitRate=%.2f",
+                name, size(), hits.sum(), misses.sum(), getHitRate());
+    }
+
+    private Path getPath() {
+        return Paths.get(Constants.normCacheDir, name + "-cache.tsv");
+    }
+
+    /**
+     * Adds the entries saved at the given path, if it exists. After the
+     * version line, each line holds the key & the normalized form,
+     * separated by the last tab. A file saved by another version of the
+     * normalizer is deleted.
+     *
+     * @param path Path to the cache file
+     * @throws IOException
+     */
+    public void load(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        boolean current;
+        try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            current = (VERSION_PREFIX + version).equals(in.readLine());
+            String line;
+            while (current && (line = in.readLine()) != null && entries.size() < maxSize) {
+                int tab = line.lastIndexOf('\t');
+                if (tab > 0) {
+                    entries.put(line.substring(0, tab), line.substring(tab + 1));
+                }
+            }
+        }
+        if (!current) {
+            System.out.println("Dropping the " + name + " cache saved by another version (now " + version + ")");
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Writes the cache to the given path if it changed since it was
+     * loaded or last saved. The workers of a PartitionedBuild save
+     * concurrently, so the entries already saved (e.g. by another
+     * worker) are merged in first, under a lock on "<path>.lock". The
+     * file is replaced atomically, & a failed write is retried by the
+     * next save.
+     *
+     * @param path Path to the cache file
+     * @throws IOException
+     */
+    public void save(Path path) throws IOException {
+        if (!changed) {
+            return;
+        }
+        changed = false;
+        Path dir = path.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path lockPath = path.resolveSibling(path.getFileName() + ".lock");
+        Path tmp = null;
+        try (FileChannel channel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = channel.lock()) {
+            load(path);
+            tmp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+            try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                out.write(VERSION_PREFIX + version);
+                out.newLine();
+                for (Map.Entry<String, String> entry : entries.entrySet()) {
+                    out.write(entry.getKey());
+                    out.write('\t');
+                    out.write(entry.getValue());
+                    out.newLine();
+                }
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            // Entries added meanwhile also set the flag, so it is only cleared before writing
+            changed = true;
+            if (tmp != null) {
+                Files.deleteIfExists(tmp);
+            }
+            throw ex;
+        }
+    }
+}
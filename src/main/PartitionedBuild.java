@@ -0,0 +1,369 @@
+package main;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * PartitionedBuild builds an index with several local worker processes.
+ * The files of src/resources are split into disjoint slices of similar
+ * total size; each worker is a separate JVM running IndexEngine over its
+ * slice into a partial index under <index path>-partitions/part-<i>.
+ * Once every worker is done, the coordinator copies the partial indexes
+ * into the index of the method with IndexWriter.addIndexes(), merges
+ * them down to Constants.partitionMergeSegments segments if set, &
+ * combines their manifests & alias tables, so the result is the index
+ * (or shards) a single IndexEngine build would have produced.
+ *
+ * Workers use the corpus & normalization caches like any build: leave
+ * the corpus cache off to time the full NLP pass.
+ */
+public class PartitionedBuild {
+    private final String indexMethod;
+    private final IndexEngine target;
+
+    public PartitionedBuild(String indexMethod) {
+        this.indexMethod = indexMethod;
+        this.target = new IndexEngine(indexMethod);
+    }
+
+    /**
+     * Splits the files of the directory into slices of similar total
+     * size: largest file first, each to the slice with the fewest bytes
+     *
+     * @param dir Directory holding the wiki files
+     * @param numPartitions Number of slices
+     * @return List of the file names of each slice
+     */
+    public static List<List<String>> assign(File dir, int numPartitions) {
+        String[] files = dir.list();
+        if (files == null) {
+            files = new String[0];
+        }
+        // Sorted by name first, so every process computes the same slices
+        Arrays.sort(files);
+        Arrays.sort(files, Comparator.comparingLong((String file) -> new File(dir, file).length()).reversed());
+
+        List<List<String>> slices = new ArrayList<>();
+        long[] sizes = new long[numPartitions];
+        for (int i = 0; i < numPartitions; i++) {
+            slices.add(new ArrayList<>());
+        }
+        for (String file : files) {
+            int smallest = 0;
+            for (int i = 1; i < numPartitions; i++) {
+                if (sizes[i] < sizes[smallest]) {
+                    smallest = i;
+                }
+            }
+            slices.get(smallest).add(file);
+            sizes[smallest] += new File(dir, file).length();
+        }
+        return slices;
+    }
+
+    private Path getPartitionsPath() {
+        return Paths.get(target.getIndexPath() + "-partitions");
+    }
+
+    private IndexEngine getPartition(int partition) {
+        IndexEngine engine = new IndexEngine(indexMethod);
+        engine.setDataPath(getPartitionsPath().resolve("part-" + partition).toString());
+        return engine;
+    }
+
+    /**
+     * Builds the partial index of one slice. Run by each worker process.
+     *
+     * @param partition Index of the slice to build, from 0
+     * @param numPartitions Number of slices
+     * @throws IOException
+     */
+    public void runWorker(int partition, int numPartitions) throws IOException {
+        List<String> files = assign(new File("src/resources"), numPartitions).get(partition);
+        System.out.println("Worker " + partition + "/" + numPartitions + ": " + files.size() + " files " + files);
+        IndexEngine engine = getPartition(partition);
+        engine.setFiles(files);
+        engine.buildIndex();
+    }
+
+    /**
+     * Builds the index with each number of workers in turn & prints the
+     * wall-clock time of the build & merge phases along with the
+     * speedup over the first run
+     *
+     * @param workerCounts Numbers of worker processes to build with
+     * @throws IOException
+     */
+    public void runScaling(int[] workerCounts) throws IOException {
+        double[][] times = new double[workerCounts.length][];
+        for (int i = 0; i < workerCounts.length; i++) {
+            times[i] = run(workerCounts[i]);
+        }
+        if (workerCounts.length > 1) {
+            if (Constants.corpusCache) {
+                System.out.println("\nNote: runs after the first replay the corpus cache, leave "
+                        + "watson.corpusCache off to compare the full NLP pass");
+            }
+            System.out.println(String.format("\n%-9s%10s%10s%10s%10s", "Workers", "Build(s)", "Merge(s)",
+                    "Total(s)", "Speedup"));
+            for (int i = 0; i < workerCounts.length; i++) {
+                double total = times[i][0] + times[i][1];
+                System.out.println(String.format("%-9d%10.2f%10.2f%10.2f%9.2fx", workerCounts[i], times[i][0],
+                        times[i][1], total, (times[0][0] + times[0][1]) / total));
+            }
+        }
+    }
+
+    /**
+     * Builds the index from scratch with the given number of worker
+     * processes, then merges their partial indexes into it
+     *
+     * @param numWorkers Number of worker processes
+     * @return double[] wall-clock seconds of the build & merge phases
+     * @throws IOException if a worker fails, the index is then left as is
+     */
+    public double[] run(int numWorkers) throws IOException {
+        System.out.println("\nBuilding index at: '" + target.getIndexPath() + "' with " + numWorkers
+                + " worker processes");
+        // Partial indexes are scratch space, each run starts from empty ones
+        deleteRecursively(getPartitionsPath());
+        Files.createDirectories(getPartitionsPath());
+
+        long buildStart = System.nanoTime();
+        List<Process> workers = new ArrayList<>();
+        for (int i = 0; i < numWorkers; i++) {
+            ProcessBuilder builder = new ProcessBuilder(getWorkerCommand(i, numWorkers));
+            builder.redirectErrorStream(true);
+            builder.redirectOutput(getPartitionsPath().resolve("part-" + i + ".log").toFile());
+            workers.add(builder.start());
+        }
+        for (int i = 0; i < numWorkers; i++) {
+            int status;
+            try {
+                status = workers.get(i).waitFor();
+            } catch (InterruptedException ex) {
+                for (Process worker : workers) {
+                    worker.destroy();
+                }
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for worker " + i, ex);
+            }
+            if (status != 0) {
+                for (Process worker : workers) {
+                    worker.destroy();
+                }
+                throw new IOException("Worker " + i + " failed with exit status " + status + ", see "
+                        + getPartitionsPath().resolve("part-" + i + ".log"));
+            }
+            System.out.println(String.format("Worker %d finished in %.2fs", i, (System.nanoTime() - buildStart) / 1e9));
+        }
+        double buildSeconds = (System.nanoTime() - buildStart) / 1e9;
+
+        long mergeStart = System.nanoTime();
+        merge(numWorkers);
+        double mergeSeconds = (System.nanoTime() - mergeStart) / 1e9;
+        deleteRecursively(getPartitionsPath());
+
+        System.out.println(String.format("Partitioned build took %.2fs (workers %.2fs, merge %.2fs)",
+                buildSeconds + mergeSeconds, buildSeconds, mergeSeconds));
+        return new double[] {buildSeconds, mergeSeconds};
+    }
+
+    /**
+     * Replaces the index of the method with the union of the partial
+     * indexes, shard by shard. Fails if a worker did not index every
+     * file of its slice. The shards & alias table are written to a
+     * sibling "<index path>.merging" directory, which only replaces the
+     * index once every shard is committed, so a broken run never
+     * replaces a good index.
+     *
+     * @param numPartitions Number of partial indexes
+     * @throws IOException
+     */
+    public void merge(int numPartitions) throws IOException {
+        List<List<String>> slices = assign(new File("src/resources"), numPartitions);
+        Path indexPath = Paths.get(target.getIndexPath());
+        Path mergingPath = Paths.get(target.getIndexPath() + ".merging");
+        String[] targetPaths = target.getShardPaths();
+        Directory[][] parts = new Directory[targetPaths.length][numPartitions];
+        IndexManifest manifest = new IndexManifest();
+        manifest.setLayout(target.getLayout());
+        AliasTable aliases = new AliasTable();
+        // Left over by an interrupted merge
+        deleteRecursively(mergingPath);
+        try {
+            for (int p = 0; p < numPartitions; p++) {
+                IndexEngine partition = getPartition(p);
+                String[] partPaths = partition.getShardPaths();
+                for (int s = 0; s < partPaths.length; s++) {
+                    parts[s][p] = FSDirectory.open(Paths.get(partPaths[s]));
+                }
+                // As in IndexEngine, the last shard only lists files complete in all of them
+                Directory lastShard = parts[partPaths.length - 1][p];
+                IndexManifest partManifest = DirectoryReader.indexExists(lastShard)
+                        ? IndexManifest.read(lastShard) : new IndexManifest();
+                for (String file : slices.get(p)) {
+                    if (!partManifest.isCurrent(file, Paths.get("src/resources", file))) {
+                        throw new IOException("Worker " + p + " did not index " + file + ", see "
+                                + getPartitionsPath().resolve("part-" + p + ".log"));
+                    }
+                }
+                manifest.putAll(partManifest);
+                aliases.putAll(partition.getAliases());
+            }
+
+            Files.createDirectories(mergingPath);
+            aliases.save(mergingPath.resolve(AliasTable.FILE_NAME));
+
+            int numDocs = 0;
+            int segments = 0;
+            long size = 0;
+            for (int s = 0; s < targetPaths.length; s++) {
+                IndexWriterConfig config = IndexEngine.createConfig(target.getAnalyzer());
+                config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+                // The shard's path within the index, e.g. shard-0, or the index itself when unsharded
+                Path shardPath = mergingPath.resolve(indexPath.relativize(Paths.get(targetPaths[s])));
+                try (Directory index = FSDirectory.open(shardPath)) {
+                    try (IndexWriter writer = new IndexWriter(index, config)) {
+                        writer.addIndexes(parts[s]);
+                        if (Constants.partitionMergeSegments > 0) {
+                            writer.forceMerge(Constants.partitionMergeSegments);
+                        }
+                        writer.setLiveCommitData(manifest.toUserData().entrySet());
+                        writer.commit();
+                        numDocs += writer.getDocStats().numDocs;
+                    }
+                    // Read once the writer is closed & its merges are done
+                    segments += SegmentInfos.readLatestCommit(index).size();
+                    size += IndexEngine.sizeOf(index);
+                }
+            }
+            replace(indexPath, mergingPath);
+            System.out.println(String.format("Merged %d partial indexes: %d documents, %d aliases, %d segments, "
+                    + "%.1f MB", numPartitions, numDocs, aliases.size(), segments, size / 1048576.0));
+        } finally {
+            for (Directory[] shard : parts) {
+                for (Directory part : shard) {
+                    if (part != null) {
+                        part.close();
+                    }
+                }
+            }
+            deleteRecursively(mergingPath);
+        }
+    }
+
+    /**
+     * Utility method used to swap the merged index in place of the
+     * previous one, by renaming directories. The previous index is
+     * moved back if the merged one cannot be moved in.
+     *
+     * @param indexPath Path of the index to replace
+     * @param mergingPath Path of the merged index
+     * @throws IOException
+     */
+    private static void replace(Path indexPath, Path mergingPath) throws IOException {
+        Path previousPath = Paths.get(indexPath + ".previous");
+        deleteRecursively(previousPath);
+        if (Files.exists(indexPath)) {
+            Files.move(indexPath, previousPath, StandardCopyOption.ATOMIC_MOVE);
+        }
+        try {
+            Files.move(mergingPath, indexPath, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            if (Files.exists(previousPath)) {
+                Files.move(previousPath, indexPath, StandardCopyOption.ATOMIC_MOVE);
+            }
+            throw ex;
+        }
+        deleteRecursively(previousPath);
+    }
+
+    /**
+     * Utility method used to build the command line of a worker: the
+     * same Java runtime, classpath, memory settings & watson.*
+     * properties as this process
+     *
+     * @param partition Index of the worker's slice
+     * @param numPartitions Number of slices
+     * @return List of the command's arguments
+     */
+    private List<String> getWorkerCommand(int partition, int numPartitions) {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (arg.startsWith("-Xm") || arg.startsWith("-Xss") || arg.startsWith("-XX:")) {
+                command.add(arg);
+            }
+        }
+        // Properties may also be set without the command line, e.g. by mvn exec:java
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("watson.")) {
+                command.add("-D" + name + "=" + System.getProperty(name));
+            }
+        }
+        command.add("-cp");
+        command.add(getClassPath());
+        command.add(IBMWatson.class.getName());
+        command.add("build-partition");
+        command.add(indexMethod);
+        command.add(Integer.toString(partition));
+        command.add(Integer.toString(numPartitions));
+        return command;
+    }
+
+    /**
+     * Utility method used to get the classpath this program was loaded
+     * from, including when run by mvn exec:java in an isolated class loader
+     *
+     * @return String classpath
+     */
+    private static String getClassPath() {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader instanceof URLClassLoader) {
+            List<String> entries = new ArrayList<>();
+            for (URL url : ((URLClassLoader) loader).getURLs()) {
+                try {
+                    entries.add(Paths.get(url.toURI()).toString());
+                } catch (URISyntaxException | IllegalArgumentException ex) {
+                    entries.add(url.getPath());
+                }
+            }
+            if (!entries.isEmpty()) {
+                return String.join(File.pathSeparator, entries);
+            }
+        }
+        return System.getProperty("java.class.path");
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            for (Path file : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
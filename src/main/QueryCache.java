@@ -0,0 +1,300 @@
+package main;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Query;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * QueryCache memoizes query evaluation in two bounded LRU levels, shared
+ * by every QueryEngine it is handed to:
+ *
+ *  - queries: (index method, layout, optimized, [reader,] category, clue) -> normalized & parsed Query
+ *  - results: (index method, reader, similarity, Query, k) -> top k Results
+ *
+ * Results hold docIds, & optimized Queries were built with the document
+ * frequencies of a reader, so both are keyed by the reader they belong
+ * to: a refreshed reader never sees them. Keys only hold their reader
+ * weakly, so a reader closed & dropped by QueryServer is not kept alive
+ * by the cache, & its entries are purged once it has been collected.
+ */
+public class QueryCache {
+    private final Level<QueryKey, Query> queries;
+    private final Level<ResultKey, List<Result>> results;
+
+    // Reader references of collected readers, whose entries are stale
+    private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+
+    public QueryCache() {
+        this(Constants.queryCacheSize, Constants.resultCacheSize);
+    }
+
+    public QueryCache(int maxQueries, int maxResults) {
+        this.queries = new Level<>(maxQueries);
+        this.results = new Level<>(maxResults);
+    }
+
+    /**
+     * Looks up the Query previously built for the question
+     *
+     * @param fielded Whether the Query targets the fielded layout (see Constants.fieldedIndex)
+     * @param optimized Whether the Query was built by the QueryOptimizer
+     * @param reader Reader the Query was built with, null if it does not depend on one
+     * @return Cached Query, null on a miss
+     */
+    public Query getQuery(String indexMethod, boolean fielded, boolean optimized, IndexReader reader,
+                          String category, String clue) {
+        return queries.get(new QueryKey(indexMethod, fielded, optimized, readerRef(reader), category, clue));
+    }
+
+    public void putQuery(String indexMethod, boolean fielded, boolean optimized, IndexReader reader,
+                         String category, String clue, Query query) {
+        purgeCollected();
+        queries.put(new QueryKey(indexMethod, fielded, optimized, readerRef(reader), category, clue), query);
+    }
+
+    /**
+     * Looks up the top k Results of the query on the given reader
+     *
+     * @return Copy of the cached Results, null on a miss
+     */
+    public ArrayList<Result> getResults(String indexMethod, String queryMethod, IndexReader reader, Query query, int k) {
+        List<Result> cached = results.get(new ResultKey(indexMethod, readerRef(reader), queryMethod, query, k));
+        return cached == null ? null : new ArrayList<>(cached);
+    }
+
+    public void putResults(String indexMethod, String queryMethod, IndexReader reader, Query query, int k,
+                           List<Result> topK) {
+        purgeCollected();
+        results.put(new ResultKey(indexMethod, readerRef(reader), queryMethod, query, k), new ArrayList<>(topK));
+    }
+
+    public Level<QueryKey, Query> getQueryLevel() {
+        return queries;
+    }
+
+    public Level<ResultKey, List<Result>> getResultLevel() {
+        return results;
+    }
+
+    /**
+     * Summarizes both levels, e.g. "queries: hits=10 misses=90 ..."
+     *
+     * @return String summary of the cache statistics
+     */
+    public String summary() {
+        return "queries: " + queries.summary() + "; results: " + results.summary();
+    }
+
+    /**
+     * Utility method used to identify a reader in cache keys, by identity
+     *
+     * @param reader Reader, may be null
+     * @return ReaderRef weakly referencing the key of the reader, null for a null reader
+     */
+    private ReaderRef readerRef(IndexReader reader) {
+        if (reader == null) {
+            return null;
+        }
+        // Readers without a cache helper (MultiReaders over shards) identify themselves
+        IndexReader.CacheHelper helper = reader.getReaderCacheHelper();
+        return new ReaderRef(helper == null ? reader : helper.getKey(), collected);
+    }
+
+    /**
+     * Utility method used to drop the entries of readers collected since
+     * the last call, so they do not take LRU slots until they age out
+     */
+    private void purgeCollected() {
+        if (collected.poll() == null) {
+            return;
+        }
+        while (collected.poll() != null) {
+            // Every stale entry is found by the scans below
+        }
+        queries.removeIf(key -> ReaderRef.isCollected(key.readerRef));
+        results.removeIf(key -> ReaderRef.isCollected(key.readerRef));
+    }
+
+    /**
+     * Bounded, thread-safe LRU map counting hits, misses & evictions
+     */
+    public static class Level<K, V> {
+        private final LinkedHashMap<K, V> entries;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+
+        private Level(int maxSize) {
+            this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                    if (size() > maxSize) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        private synchronized V get(K key) {
+            V value = entries.get(key);
+            if (value == null) {
+                misses.increment();
+            } else {
+                hits.increment();
+            }
+            return value;
+        }
+
+        private synchronized void put(K key, V value) {
+            entries.put(key, value);
+        }
+
+        private synchronized void removeIf(Predicate<K> stale) {
+            entries.keySet().removeIf(stale);
+        }
+
+        public synchronized int size() {
+            return entries.size();
+        }
+
+        public long getHits() {
+            return hits.sum();
+        }
+
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        public long getEvictions() {
+            return evictions.sum();
+        }
+
+        public double getHitRate() {
+            long lookups = hits.sum() + misses.sum();
+            return lookups == 0 ? 0 : (double) hits.sum() / lookups;
+        }
+
+        private String summary() {
+            return String.format("size=%d hits=%d misses=%d evictions=%d hitRate=%.2f",
+                    size(), getHits(), getMisses(), getEvictions(), getHitRate());
+        }
+    }
+
+    /**
+     * Weak reference to the key of a reader. Two references are equal
+     * while they point to the same live reader key; once it is collected,
+     * a reference only equals itself, so stale entries are never hit.
+     */
+    private static class ReaderRef extends WeakReference<Object> {
+        private final int hash;
+
+        private ReaderRef(Object readerKey, ReferenceQueue<Object> queue) {
+            super(readerKey, queue);
+            this.hash = System.identityHashCode(readerKey);
+        }
+
+        private static boolean isCollected(ReaderRef ref) {
+            return ref != null && ref.get() == null;
+        }
+
+        private static boolean same(ReaderRef a, ReaderRef b) {
+            if (a == null || b == null) {
+                return a == b;
+            }
+            Object referent = a.get();
+            return a == b || (referent != null && referent == b.get());
+        }
+
+        private static int hash(ReaderRef ref) {
+            return ref == null ? 0 : ref.hash;
+        }
+    }
+
+    /**
+     * Key of the queries level. The text & fielded layouts, & optimized &
+     * parsed Queries, search different fields & clauses, so they are part
+     * of the key. The reader is null for Queries that do not depend on
+     * the reader they were built with.
+     */
+    public static class QueryKey {
+        private final String indexMethod;
+        private final boolean fielded;
+        private final boolean optimized;
+        private final ReaderRef readerRef;
+        private final String category;
+        private final String clue;
+
+        private QueryKey(String indexMethod, boolean fielded, boolean optimized, ReaderRef readerRef,
+                         String category, String clue) {
+            this.indexMethod = indexMethod;
+            this.fielded = fielded;
+            this.optimized = optimized;
+            this.readerRef = readerRef;
+            this.category = category;
+            this.clue = clue;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof QueryKey)) {
+                return false;
+            }
+            QueryKey other = (QueryKey) o;
+            return indexMethod.equals(other.indexMethod) && fielded == other.fielded
+                    && optimized == other.optimized && ReaderRef.same(readerRef, other.readerRef)
+                    && Objects.equals(category, other.category) && Objects.equals(clue, other.clue);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(indexMethod, fielded, optimized, ReaderRef.hash(readerRef), category, clue);
+        }
+    }
+
+    /**
+     * Key of the results level. Lucene Queries implement equals/hashCode,
+     * so equivalent questions share their results; readers are compared
+     * by identity.
+     */
+    public static class ResultKey {
+        private final String indexMethod;
+        private final ReaderRef readerRef;
+        private final String queryMethod;
+        private final Query query;
+        private final int k;
+
+        private ResultKey(String indexMethod, ReaderRef readerRef, String queryMethod, Query query, int k) {
+            this.indexMethod = indexMethod;
+            this.readerRef = readerRef;
+            this.queryMethod = queryMethod;
+            this.query = query;
+            this.k = k;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ResultKey)) {
+                return false;
+            }
+            ResultKey other = (ResultKey) o;
+            return k == other.k && ReaderRef.same(readerRef, other.readerRef) && indexMethod.equals(other.indexMethod)
+                    && queryMethod.equals(other.queryMethod) && query.equals(other.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(indexMethod, ReaderRef.hash(readerRef), queryMethod, query, k);
+        }
+    }
+}
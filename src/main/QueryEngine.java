@@ -1,30 +1,89 @@
 package main;
 
-import edu.stanford.nlp.simple.Sentence;
-import org.apache.lucene.document.Document;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BlendedTermQuery;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.LRUQueryCache;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryCachingPolicy;
+import org.apache.lucene.search.QueryRescorer;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.search.similarities.BooleanSimilarity;
 import org.apache.lucene.search.similarities.ClassicSimilarity;
 import org.apache.lucene.search.similarities.LMJelinekMercerSimilarity;
+import org.apache.lucene.search.similarities.PerFieldSimilarityWrapper;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.ByteBuffersDataOutput;
+import org.apache.lucene.store.ByteBuffersDirectory;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
-import org.tartarus.snowball.ext.PorterStemmer;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.SingleInstanceLockFactory;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
 
 public class QueryEngine {
+    // Combines the per-field scores of a blended term, mostly keeping the best one
+    private static final BlendedTermQuery.RewriteMethod FIELD_BLEND = new BlendedTermQuery.DisjunctionMaxRewrite(0.1f);
+
+    // Pool searching the shards of sharded indexes, see getSearchExecutor()
+    private static ExecutorService searchExecutor;
+
+    // Matching documents of category filters, shared by all searchers, see getFilterCache()
+    private static LRUQueryCache filterCache;
+
+    // Caches every filter on first use: there is one per category, reused across questions & searchers
+    private static final QueryCachingPolicy CACHE_FILTERS = new QueryCachingPolicy() {
+        @Override
+        public void onUse(Query query) {
+        }
+
+        @Override
+        public boolean shouldCache(Query query) {
+            return true;
+        }
+    };
+
+    // Direct buffers of in-memory copies are fixed 64KB blocks: growing blocks would be
+    // rewritten as files are copied, leaving garbage direct memory until the next GC
+    private static final int DIRECT_BITS_PER_BLOCK = 16;
+
+    // Only stored field loaded for hits of indexes without title doc values
+    private static final Set<String> TITLE_FIELD = Collections.singleton("title");
+
     private IndexEngine indexEngine;
     private String queryMethod;
     private String indexMethod;
@@ -32,36 +91,319 @@ public class QueryEngine {
     // Lucene objects needed to read from index
     private IndexReader reader;
     private IndexSearcher searcher;
+    private boolean fielded;
+
+    // Number of threads used to evaluate questions (1 = serial)
+    private int numWorkers = Constants.queryWorkers;
+
+    // Cache shared with other engines, null to always evaluate
+    private QueryCache cache;
+
+    // Term selection of optimized queries, null to parse questions instead
+    private QueryOptimizer optimizer = Constants.queryOptimizer ? new QueryOptimizer() : null;
+
+    // Two-phase retrieval: number of first pass hits rescored (0 = single pass) & time allowed
+    private int rescoreDepth = Constants.rescoreDepth;
+    private long rescoreBudgetNanos = (long) (Constants.rescoreBudgetMs * 1e6);
+    private IndexSearcher bm25Searcher;
+    private IndexSearcher jmSearcher;
 
     // Running statistics
-    int totalQCount = 0;
-    int correctAnsCount = 0;
+    LongAdder totalQCount = new LongAdder();
+    LongAdder correctAnsCount = new LongAdder();
+    LatencyHistogram latency = new LatencyHistogram();
+    LatencyHistogram fetchLatency = new LatencyHistogram();
+    LongAdder searches = new LongAdder();
+    LongAdder matchedDocs = new LongAdder();
+    LongAdder filteredSearches = new LongAdder();
+    LongAdder filterFallbacks = new LongAdder();
+    LongAdder rescoredSearches = new LongAdder();
+    LongAdder rescoreOverBudget = new LongAdder();
 
     public QueryEngine(IndexEngine indexEngine, String queryMethod, String indexMethod) {
+        this(indexEngine, openReader(indexEngine.getShardPaths()), queryMethod, indexMethod);
+    }
+
+    /**
+     * Creates a QueryEngine searching an already opened reader, which
+     * allows several engines (e.g. one per similarity) to share it.
+     *
+     * @param indexEngine IndexEngine the index was built with
+     * @param reader Open reader over the index
+     * @param queryMethod One of the Constants query methods
+     * @param indexMethod One of the Constants index methods
+     */
+    public QueryEngine(IndexEngine indexEngine, IndexReader reader, String queryMethod, String indexMethod) {
         this.indexEngine = indexEngine;
         this.queryMethod = queryMethod;
         this.indexMethod = indexMethod;
+        this.reader = reader;
+
+        fielded = isFielded(reader);
+        searcher = createSearcher(queryMethod);
+    }
+
+    /**
+     * Utility method used to create a searcher over the reader scoring
+     * with the similarity of the given query method, searching the
+     * segments of sharded indexes concurrently
+     *
+     * @param queryMethod One of the Constants query methods
+     * @return IndexSearcher over the reader
+     */
+    private IndexSearcher createSearcher(String queryMethod) {
+        IndexSearcher created = reader instanceof MultiReader && Constants.searchThreads > 1
+                ? new IndexSearcher(reader, getSearchExecutor())
+                : new IndexSearcher(reader);
+        if (Constants.categoryFilter) {
+            // Filters are only cached in non-scoring contexts, i.e. as FILTER clauses
+            created.setQueryCache(getFilterCache());
+            created.setQueryCachingPolicy(CACHE_FILTERS);
+        }
+        created.setSimilarity(fielded ? createFieldSimilarity(queryMethod) : createSimilarity(queryMethod));
+        return created;
+    }
+
+    /**
+     * Utility method used to determine whether the index was built with
+     * the fielded layout (see Constants.fieldedIndex)
+     *
+     * @param reader Open reader over the index
+     * @return boolean true/false evaluation
+     */
+    public static boolean isFielded(IndexReader reader) {
+        for (LeafReaderContext leaf : reader.leaves()) {
+            if (leaf.reader().getFieldInfos().fieldInfo("body") != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Utility method used to get the pool shared by all searchers of
+     * sharded indexes, created on first use
+     *
+     * @return ExecutorService of Constants.searchThreads daemon threads
+     */
+    private static synchronized ExecutorService getSearchExecutor() {
+        if (searchExecutor == null) {
+            searchExecutor = Executors.newFixedThreadPool(Constants.searchThreads, runnable -> {
+                Thread thread = new Thread(runnable, "shard-search");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return searchExecutor;
+    }
+
+    /**
+     * Utility method used to get the cache of category filters shared by
+     * all searchers, created on first use. Entries are per segment, so
+     * searchers of the same index (e.g. one per similarity, or per server
+     * request) share them.
+     *
+     * @return LRUQueryCache of Constants.categoryFilterCacheSize filters
+     */
+    public static synchronized LRUQueryCache getFilterCache() {
+        if (filterCache == null) {
+            // Cache every segment, however small
+            filterCache = new LRUQueryCache(Constants.categoryFilterCacheSize,
+                    (long) (Constants.categoryFilterCacheMB * 1024 * 1024), leaf -> true);
+        }
+        return filterCache;
+    }
 
-        // Setup Reader
+    /**
+     * Utility method used to open a reader over the index at the given
+     * path. Several paths (the shards of an index) are opened as a single
+     * MultiReader, whose term statistics span all shards, so scores are
+     * the same as those of an unsharded index.
+     *
+     * @param indexPaths Path to the index, or to each of its shards
+     * @return IndexReader over the index, null if it could not be opened
+     */
+    public static IndexReader openReader(String... indexPaths) {
         try {
-            Directory index = FSDirectory.open(new File(indexEngine.getIndexPath()).toPath());
-            reader = DirectoryReader.open(index);
+            IndexReader[] shards = new IndexReader[indexPaths.length];
+            for (int i = 0; i < indexPaths.length; i++) {
+                shards[i] = DirectoryReader.open(openDirectory(indexPaths[i]));
+            }
+            return shards.length == 1 ? shards[0] : new MultiReader(shards);
         } catch (IOException ex) {
             ex.printStackTrace();
         }
+        return null;
+    }
+
+    /**
+     * Utility method used to open the index at the given path in the
+     * Constants.directoryMode:
+     *
+     *  fs     - FSDirectory.open(), files are paged in by the OS on demand
+     *  mmap   - MMapDirectory, every file loaded into memory when opened
+     *  heap   - copy of the latest commit held in the Java heap
+     *  direct - copy of the latest commit held in direct (off-heap) buffers
+     *
+     * Copies are snapshots, they do not see later commits of the index.
+     *
+     * @param indexPath Path to the index
+     * @return Directory of the index
+     * @throws IOException
+     */
+    public static Directory openDirectory(String indexPath) throws IOException {
+        Path path = new File(indexPath).toPath();
+        if (Constants.directoryMode.equals("mmap")) {
+            MMapDirectory index = new MMapDirectory(path);
+            index.setPreload(true);
+            return index;
+        }
+        Directory index = FSDirectory.open(path);
+        boolean inMemory = Constants.directoryMode.equals("heap") || Constants.directoryMode.equals("direct");
+        if (!inMemory || !DirectoryReader.indexExists(index)) {
+            return index;
+        }
+        ByteBuffersDirectory copy = Constants.directoryMode.equals("heap") ? new ByteBuffersDirectory()
+                : new ByteBuffersDirectory(new SingleInstanceLockFactory(), () -> new ByteBuffersDataOutput(
+                        DIRECT_BITS_PER_BLOCK, DIRECT_BITS_PER_BLOCK,
+                        ByteBuffer::allocateDirect, ByteBuffersDataOutput.NO_REUSE),
+                        ByteBuffersDirectory.OUTPUT_AS_MANY_BUFFERS);
+        try {
+            for (String file : SegmentInfos.readLatestCommit(index).files(true)) {
+                copy.copyFrom(index, file, file, IOContext.READONCE);
+            }
+        } finally {
+            index.close();
+        }
+        return copy;
+    }
 
-        // Setup Searcher
-        searcher = new IndexSearcher(reader);
-        if (this.queryMethod.equals(Constants.BOOLEAN)) {
-            searcher.setSimilarity(new BooleanSimilarity());
-        } else if (this.queryMethod.equals(Constants.BM25)) {
-            searcher.setSimilarity(new BM25Similarity());
-        } else if (this.queryMethod.equals(Constants.TF_IDF)) {
+    /**
+     * Creates the Similarity implementing the given query method
+     *
+     * @param queryMethod One of the Constants query methods
+     * @return Similarity used to score documents
+     */
+    public static Similarity createSimilarity(String queryMethod) {
+        if (queryMethod.equals(Constants.BOOLEAN)) {
+            return new BooleanSimilarity();
+        } else if (queryMethod.equals(Constants.TF_IDF)) {
             // Ref: https://lucene.apache.org/core/7_2_1/core/index.html?org/apache/lucene/search/similarities/ClassicSimilarity.html
-            searcher.setSimilarity(new ClassicSimilarity()); // extends TFIDFSimilarity
-        } else if (this.queryMethod.equals(Constants.JM)) {
-            searcher.setSimilarity(new LMJelinekMercerSimilarity((float)0.5));
+            return new ClassicSimilarity(); // extends TFIDFSimilarity
+        } else if (queryMethod.equals(Constants.JM)) {
+            return new LMJelinekMercerSimilarity((float)0.5);
         }
+        return new BM25Similarity();
+    }
+
+    /**
+     * Creates the Similarity of fielded indexes. BM25 gets per-field
+     * length normalization (Constants.titleB, categoryB & bodyB), the
+     * other query methods score every field alike.
+     *
+     * @param queryMethod One of the Constants query methods
+     * @return Similarity used to score documents
+     */
+    public static Similarity createFieldSimilarity(String queryMethod) {
+        Similarity similarity = createSimilarity(queryMethod);
+        if (!(similarity instanceof BM25Similarity)) {
+            return similarity;
+        }
+        Similarity title = new BM25Similarity(1.2f, Constants.titleB);
+        Similarity category = new BM25Similarity(1.2f, Constants.categoryB);
+        Similarity body = new BM25Similarity(1.2f, Constants.bodyB);
+        return new PerFieldSimilarityWrapper() {
+            @Override
+            public Similarity get(String field) {
+                if (field.equals("titleText")) {
+                    return title;
+                } else if (field.equals("category")) {
+                    return category;
+                }
+                return body;
+            }
+        };
+    }
+
+    public IndexSearcher getSearcher() {
+        return searcher;
+    }
+
+    public long getTotalCount() {
+        return totalQCount.sum();
+    }
+
+    public long getCorrectCount() {
+        return correctAnsCount.sum();
+    }
+
+    public QueryCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Sets the cache of parsed queries & top k results consulted by
+     * buildQuery() & search(). The cache may be shared by engines of any
+     * index & query method.
+     *
+     * @param cache QueryCache to use, null to disable caching
+     */
+    public void setCache(QueryCache cache) {
+        this.cache = cache;
+    }
+
+    public int getRescoreDepth() {
+        return rescoreDepth;
+    }
+
+    /**
+     * Enables two-phase retrieval: the top depth hits of each query are
+     * rescored by rescore() within the given time budget
+     *
+     * @param depth Number of first pass hits to rescore, 0 for a single pass
+     * @param budgetMs Time allowed per query to rescore, 0 for no limit
+     */
+    public void setRescore(int depth, double budgetMs) {
+        this.rescoreDepth = Math.max(0, depth);
+        this.rescoreBudgetNanos = (long) (budgetMs * 1e6);
+    }
+
+    public QueryOptimizer getOptimizer() {
+        return optimizer;
+    }
+
+    /**
+     * Sets the optimizer selecting the terms of the queries built by
+     * buildQuery(), which then builds term queries directly instead of
+     * parsing the questions
+     *
+     * @param optimizer QueryOptimizer to use, null to parse questions
+     */
+    public void setOptimizer(QueryOptimizer optimizer) {
+        this.optimizer = optimizer;
+    }
+
+    /**
+     * Public accessor of the per-question latency histogram
+     *
+     * @return LatencyHistogram of the questions evaluated so far
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public int getNumWorkers() {
+        return numWorkers;
+    }
+
+    /**
+     * Sets the number of threads used by processQuestions(). All threads
+     * share this engine's IndexSearcher. A value of 1 evaluates serially.
+     *
+     * @param numWorkers Number of evaluation threads
+     */
+    public void setNumWorkers(int numWorkers) {
+        this.numWorkers = Math.max(1, numWorkers);
     }
 
     /**
@@ -69,34 +411,39 @@ public class QueryEngine {
      * path & uses the generated IndexEngine to execute queries
      */
     public void processQuestions() {
-        // Format of questions being parsed
-        // (1) Category
-        // (2) Clue
-        // (3) Answer
-        // (4) Newline (whitespace)
-        String category, clue, answer;
-        ArrayList<Result> results;
-
-        try (Scanner sc = new Scanner(new File(Constants.pathToQuestions))) {
-            while (sc.hasNextLine()) {
-                // Extract items pertaining to THIS question
-                category = sc.nextLine().trim();
-                clue = sc.nextLine().trim();
-                answer = sc.nextLine().trim();
-                sc.nextLine(); // Ingest newline (unused)
-
-                // Gather results from query on index (10 results returned)
-                results = executeQuery(category, clue);
-
-                // Check if the top hit was the correct answer
-                if (results.size() > 0 && results.get(0).getDocName().get("title").equals(answer)) {
-                    // Correct!
-                    correctAnsCount++;
-                }
-                totalQCount++;
+        try {
+            List<Question> questions = Question.load(Constants.pathToQuestions);
+
+            long start = System.nanoTime();
+            evaluate(questions);
+            long elapsed = System.nanoTime() - start;
+
+            double score = correctAnsCount.doubleValue() / totalQCount.doubleValue();
+            System.out.println("Got " + correctAnsCount.sum() + "/" + totalQCount.sum() + " = " + score);
+            System.out.println(String.format("Evaluated %d questions in %.2fs (%d workers)",
+                    totalQCount.sum(), elapsed / 1e9, numWorkers));
+            System.out.println("Query latency over " + reader.leaves().size() + " segments: " + latency.summary());
+            System.out.println("Title fetch latency: " + fetchLatency.summary());
+            System.out.println(String.format("Scored %.1f docs per query", searches.sum() == 0 ? 0
+                    : matchedDocs.doubleValue() / searches.sum()));
+            if (optimizer != null) {
+                System.out.println("Query optimizer: " + optimizer.summary());
+            }
+            if (rescoreDepth > 0) {
+                System.out.println(String.format("Rescoring: top %d hits of %d queries, %d over the %.1fms budget",
+                        rescoreDepth, rescoredSearches.sum(), rescoreOverBudget.sum(), rescoreBudgetNanos / 1e6));
+            }
+            if (Constants.categoryFilter) {
+                LRUQueryCache filters = getFilterCache();
+                System.out.println(String.format("Category filter: %d/%d questions filtered, %d fell back to "
+                        + "unfiltered search; filter cache: size=%d hits=%d misses=%d", filteredSearches.sum()
+                        - filterFallbacks.sum(), filteredSearches.sum(), filterFallbacks.sum(),
+                        filters.getCacheSize(), filters.getHitCount(), filters.getMissCount()));
+            }
+            if (cache != null) {
+                System.out.println("Query cache: " + cache.summary());
             }
-            double score = (double) correctAnsCount / (double) totalQCount;
-            System.out.println("Got " + correctAnsCount + "/" + totalQCount + " = " + score);
+            IndexEngine.printNormalizationCache(System.out);
             reader.close();
         } catch (FileNotFoundException ex) {
             ex.printStackTrace();
@@ -107,6 +454,126 @@ public class QueryEngine {
         }
     }
 
+    /**
+     * Executes a query for every question, serially or over numWorkers
+     * threads, updating the running statistics along the way.
+     *
+     * @param questions Questions to evaluate
+     * @return List of Results per question, in the same order as questions
+     * @throws IOException
+     */
+    public List<ArrayList<Result>> evaluate(List<Question> questions) throws IOException {
+        return evaluate(questions, null);
+    }
+
+    /**
+     * Same as evaluate(questions), but runs the given pre-built queries
+     * instead of generating them from each question.
+     *
+     * @param questions Questions to evaluate
+     * @param queries Query per question (see buildQuery), or null to build them
+     * @return List of Results per question, in the same order as questions
+     * @throws IOException
+     */
+    public List<ArrayList<Result>> evaluate(List<Question> questions, List<Query> queries) throws IOException {
+        List<ArrayList<Result>> allResults = new ArrayList<>(questions.size());
+
+        if (numWorkers <= 1) {
+            for (int i = 0; i < questions.size(); i++) {
+                allResults.add(evaluate(questions.get(i), queries == null ? null : queries.get(i)));
+            }
+            return allResults;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(numWorkers);
+        try {
+            List<Future<ArrayList<Result>>> futures = new ArrayList<>(questions.size());
+            for (int i = 0; i < questions.size(); i++) {
+                Question question = questions.get(i);
+                Query query = queries == null ? null : queries.get(i);
+                futures.add(executor.submit(() -> evaluate(question, query)));
+            }
+            // Futures are collected in submission order
+            for (Future<ArrayList<Result>> future : futures) {
+                allResults.add(future.get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while evaluating questions", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException("Failed to evaluate question", ex.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        return allResults;
+    }
+
+    /**
+     * Executes the query for a single question & records whether the
+     * top hit was the correct answer
+     *
+     * @param question Question to evaluate
+     * @param query Pre-built query for the question, or null to build it
+     * @return List of Results (top 10 results with highest similarity scores)
+     */
+    private ArrayList<Result> evaluate(Question question, Query query) {
+        // Gather results from query on index (10 results returned)
+        long start = System.nanoTime();
+        ArrayList<Result> results = query == null
+                ? executeQuery(question.getCategory(), question.getClue())
+                : search(query, 10, question.getCategory(), question.getClue());
+        latency.record(System.nanoTime() - start);
+
+        // Check if the top hit was the correct answer
+        if (isCorrect(results, question, Constants.foldStubs ? indexEngine.getAliases() : null)) {
+            // Correct!
+            correctAnsCount.increment();
+        }
+        totalQCount.increment();
+        Metrics.increment(Metrics.Counter.QUESTIONS);
+        return results;
+    }
+
+    /**
+     * Utility method used to check whether the top hit of the results
+     * is the answer to the question
+     *
+     * @param results Results returned for the question
+     * @param question Question that was asked
+     * @return boolean true/false evaluation
+     */
+    public static boolean isCorrect(List<Result> results, Question question) {
+        return isCorrect(results, question, null);
+    }
+
+    /**
+     * Same as isCorrect(results, question), but with an alias table
+     * (see Constants.foldStubs) any of the '|'-separated alternatives of
+     * the answer (e.g. "The Salvation Army|Salvation Army") & titles that
+     * are aliases of one another are also accepted
+     *
+     * @param results Results returned for the question
+     * @param question Question that was asked
+     * @param aliases AliasTable of the index, or null to only accept the answer as is
+     * @return boolean true/false evaluation
+     */
+    public static boolean isCorrect(List<Result> results, Question question, AliasTable aliases) {
+        if (results.isEmpty()) {
+            return false;
+        }
+        String title = results.get(0).getTitle();
+        if (aliases == null) {
+            return title.equals(question.getAnswer());
+        }
+        for (String answer : question.getAnswer().split("\\|")) {
+            answer = answer.trim();
+            if (title.equals(answer) || aliases.resolve(title).equals(aliases.resolve(answer))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Takes in the category & clue of the from questions.txt &
      * generates a query from them to search the index for possible
@@ -117,25 +584,299 @@ public class QueryEngine {
      * @return List of Results (top 10 results with highest similarity scores)
      */
     private ArrayList<Result> executeQuery(String category, String clue) {
-        ArrayList<Result> results = new ArrayList<>();
+        return search(buildQuery(category, clue), 10, category, clue);
+    }
+
+    /**
+     * Generates the query for the given category & clue, normalized with
+     * the Analyzer of the index being searched. The query does not depend
+     * on the Similarity, so it can be reused across searchers.
+     *
+     * @param category Category defined in questions.txt
+     * @param clue Clue defined in questions.txt
+     * @return Query to search the index with, null if it could not be parsed
+     */
+    public Query buildQuery(String category, String clue) {
+        // Optimized queries depend on the reader's docFreqs, parsed ones only on the layout
+        boolean optimized = optimizer != null;
+        IndexReader builtWith = optimized ? reader : null;
+        if (cache != null) {
+            Query cached = cache.getQuery(indexMethod, fielded, optimized, builtWith, category, clue);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Query query;
+        if (optimized) {
+            query = buildOptimizedQuery(category, clue);
+        } else {
+            query = fielded ? buildFieldedQuery(category, clue) : parseQuery(category, clue);
+        }
+        if (Constants.categoryFilter && query != null) {
+            query = filter(query, category);
+        }
+        if (cache != null && query != null) {
+            cache.putQuery(indexMethod, fielded, optimized, builtWith, category, clue, query);
+        }
+        return query;
+    }
+
+    /**
+     * Generates the query over the text field: one clause per term of
+     * the category & clue, as the QueryParser would build with its OR
+     * operator. The category & clue are each analyzed once, as a whole,
+     * with the index's Analyzer, so their terms are normalized exactly
+     * like the fields of a Document (e.g. a clue sentence is POS tagged
+     * in context, like the same sentence of an article).
+     *
+     * @param category Category defined in questions.txt
+     * @param clue Clue defined in questions.txt
+     * @return Query to search the index with
+     */
+    private Query parseQuery(String category, String clue) {
+        long start = Metrics.start();
+        List<String> terms = analyze("text", category);
+        terms.addAll(analyze("text", clue));
+        Metrics.record(Metrics.Stage.NORMALIZE, start);
+
+        start = Metrics.start();
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (String term : terms) {
+            builder.add(new TermQuery(new Term("text", term)), BooleanClause.Occur.SHOULD);
+        }
+        Metrics.record(Metrics.Stage.QUERY_PARSE, start);
+        return builder.build();
+    }
+
+    /**
+     * Generates the query of fielded indexes. Every clue term is scored
+     * over the titleText & body fields as a single blended term, sharing
+     * its document frequency across them (BM25F-style), while the
+     * category line is matched against the category field only.
+     *
+     * @param category Category defined in questions.txt
+     * @param clue Clue defined in questions.txt
+     * @return Query to search the index with
+     */
+    private Query buildFieldedQuery(String category, String clue) {
+        long start = Metrics.start();
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (String term : analyze("body", clue)) {
+            builder.add(new BlendedTermQuery.Builder()
+                    .add(new Term("titleText", term), Constants.titleBoost)
+                    .add(new Term("body", term), Constants.bodyBoost)
+                    .setRewriteMethod(FIELD_BLEND)
+                    .build(), BooleanClause.Occur.SHOULD);
+        }
+        for (String term : analyze("category", category)) {
+            builder.add(new BoostQuery(new TermQuery(new Term("category", term)), Constants.categoryBoost),
+                    BooleanClause.Occur.SHOULD);
+        }
+        Metrics.record(Metrics.Stage.QUERY_PARSE, start);
+        return builder.build();
+    }
+
+    /**
+     * Generates the query from the analyzed terms of the category & clue,
+     * like parseQuery(), but each distinct term becomes a single clause
+     * boosted by its number of occurrences, which scores the same as
+     * repeating it, & only the terms chosen by the optimizer are kept. Fielded indexes get the clauses of buildFieldedQuery().
+     *
+     * @param category Category defined in questions.txt
+     * @param clue Clue defined in questions.txt
+     * @return Query to search the index with
+     */
+    private Query buildOptimizedQuery(String category, String clue) {
+        long start = Metrics.start();
+        String categoryField = fielded ? "category" : "text";
+        String clueField = fielded ? "body" : "text";
 
+        // Distinct terms & their number of occurrences, in question order
+        Map<Term, Integer> counts = new LinkedHashMap<>();
+        for (String term : analyze(categoryField, category)) {
+            counts.merge(new Term(categoryField, term), 1, Integer::sum);
+        }
+        for (String term : analyze(clueField, clue)) {
+            counts.merge(new Term(clueField, term), 1, Integer::sum);
+        }
+
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
         try {
-            String contentToParse = processQuestionContent(category + " " + clue);
+            List<Term> terms = optimizer.select(reader, counts.keySet());
+            for (Term term : terms) {
+                Query clause;
+                float boost = counts.get(term);
+                if (!fielded) {
+                    clause = new TermQuery(term);
+                } else if (term.field().equals("body")) {
+                    clause = new BlendedTermQuery.Builder()
+                            .add(new Term("titleText", term.text()), Constants.titleBoost)
+                            .add(term, Constants.bodyBoost)
+                            .setRewriteMethod(FIELD_BLEND)
+                            .build();
+                } else {
+                    clause = new TermQuery(term);
+                    boost *= Constants.categoryBoost;
+                }
+                builder.add(boost == 1 ? clause : new BoostQuery(clause, boost), BooleanClause.Occur.SHOULD);
+            }
+            builder.setMinimumNumberShouldMatch(optimizer.getMinShouldMatch(terms.size()));
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        Metrics.record(Metrics.Stage.QUERY_PARSE, start);
+        return builder.build();
+    }
+
+    /**
+     * Restricts the query to documents whose category field contains any
+     * of the terms of the question's category. The filter does not change
+     * the scores of the documents it lets through.
+     *
+     * @param query Query generated from the category & clue
+     * @param category Category defined in questions.txt
+     * @return Filtered Query, or query itself if the category has no terms
+     */
+    private Query filter(Query query, String category) {
+        List<String> terms = analyze("category", category);
+        if (terms.isEmpty()) {
+            return query;
+        }
+        BooleanQuery.Builder filter = new BooleanQuery.Builder();
+        for (String term : terms) {
+            filter.add(new TermQuery(new Term("category", term)), BooleanClause.Occur.SHOULD);
+        }
+        return new BooleanQuery.Builder()
+                .add(query, BooleanClause.Occur.MUST)
+                .add(filter.build(), BooleanClause.Occur.FILTER)
+                .build();
+    }
+
+    /**
+     * Utility method used to unwrap a query built by filter()
+     *
+     * @param query Query to search the index with
+     * @return Query without its category filter, null if it has none
+     */
+    private static Query unfiltered(Query query) {
+        if (query instanceof BooleanQuery) {
+            List<BooleanClause> clauses = ((BooleanQuery) query).clauses();
+            if (clauses.size() == 2 && clauses.get(0).getOccur() == BooleanClause.Occur.MUST
+                    && clauses.get(1).getOccur() == BooleanClause.Occur.FILTER) {
+                return clauses.get(0).getQuery();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Utility method used to run text through the index's Analyzer
+     *
+     * @param field Field the text is meant for
+     * @param text Text to analyze
+     * @return List of normalized terms, in order
+     */
+    private List<String> analyze(String field, String text) {
+        List<String> terms = new ArrayList<>();
+        try (TokenStream stream = indexEngine.getAnalyzer().tokenStream(field, text)) {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                terms.add(term.toString());
+            }
+            stream.end();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        return terms;
+    }
+
+    /**
+     * Searches the index with the given query. Returns list of results
+     * from the query.
+     *
+     * @param query Query generated by buildQuery()
+     * @return List of Results (top 10 results with highest similarity scores)
+     */
+    public ArrayList<Result> search(Query query) {
+        return search(query, 10);
+    }
+
+    /**
+     * Searches the index with the given query, returning the top k hits
+     *
+     * @param query Query generated by buildQuery()
+     * @param k Number of results to return
+     * @return List of Results (top k results with highest similarity scores)
+     */
+    public ArrayList<Result> search(Query query, int k) {
+        return search(query, k, null, null);
+    }
+
+    /**
+     * Searches the index with the query generated for the given category
+     * & clue, returning the top k hits. With two-phase retrieval on, the
+     * category & clue are used to rescore the first pass hits.
+     *
+     * @param query Query generated by buildQuery()
+     * @param k Number of results to return
+     * @param category Category defined in questions.txt, null if unknown
+     * @param clue Clue defined in questions.txt, null if unknown
+     * @return List of Results (top k results with highest similarity scores)
+     */
+    public ArrayList<Result> search(Query query, int k, String category, String clue) {
+        ArrayList<Result> results = new ArrayList<>();
+        if (query == null) {
+            return results;
+        }
+        // Rescored results depend on the time budget, so they are not cached
+        boolean rescore = rescoreDepth > 0 && clue != null;
+        if (cache != null && !rescore) {
+            ArrayList<Result> cached = cache.getResults(indexMethod, queryMethod, reader, query, k);
+            if (cached != null) {
+                return cached;
+            }
+        }
 
-            // Generate Query
-            Query query = new QueryParser("text", indexEngine.getAnalyzer()).parse(contentToParse);
-            TopDocs docs = searcher.search(query, 10);
+        try {
+            long searchStart = Metrics.start();
+            int depth = rescore ? Math.max(k, rescoreDepth) : k;
+            // Two-phase retrieval always starts from BM25, whatever the query method
+            IndexSearcher firstPassSearcher = rescore ? getBm25Searcher() : searcher;
+            Query firstPass = query;
+            TopDocs docs = firstPassSearcher.search(firstPass, depth);
+            searches.increment();
+            matchedDocs.add(docs.totalHits);
+            Query unfiltered = unfiltered(query);
+            if (unfiltered != null) {
+                filteredSearches.increment();
+                if (docs.totalHits < Constants.categoryFilterMinHits) {
+                    // Too few documents share the category, e.g. one named after a pun
+                    filterFallbacks.increment();
+                    firstPass = unfiltered;
+                    docs = firstPassSearcher.search(firstPass, depth);
+                    matchedDocs.add(docs.totalHits);
+                }
+            }
+            if (rescore) {
+                docs = rescore(firstPass, docs, k, category, clue);
+            }
             ScoreDoc[] hits = docs.scoreDocs;
+            Metrics.record(Metrics.Stage.SEARCH, searchStart);
 
             // Process hits
+            long fetchStart = System.nanoTime();
+            String[] titles = fetchTitles(hits);
             for (int i = 0; i < hits.length; i++) {
-                int docId = hits[i].doc;
-                Document d = searcher.doc(docId);
+                results.add(new Result(titles[i], hits[i].score, hits[i].doc));
+            }
+            fetchLatency.record(System.nanoTime() - fetchStart);
+            Metrics.recordNanos(Metrics.Stage.FETCH, System.nanoTime() - fetchStart);
+            Metrics.add(Metrics.Counter.HITS, hits.length);
 
-                results.add(new Result(d, hits[i].score));
+            if (cache != null && !rescore) {
+                cache.putResults(indexMethod, queryMethod, reader, query, k, results);
             }
-        } catch (ParseException ex) {
-            ex.printStackTrace();
         } catch (IOException ex) {
             ex.printStackTrace();
         }
@@ -144,34 +885,160 @@ public class QueryEngine {
     }
 
     /**
-     * Processes questionContent according to the user-specified method
-     * of Stemming, Lemmatization, or neither. Return processed string.
+     * Second phase of two-phase retrieval: adds to the BM25 first pass
+     * score of each hit, in order of increasing cost, the weighted score of
      *
-     * @param qContent Question content to be utilized as the query
-     * @return Processed query string 
+     *  - the category terms in the category field (BM25)
+     *  - every pair of consecutive clue terms within Constants.rescoreSlop (BM25)
+     *  - the query under the Jelinek Mercer similarity
+     *
+     * Stages left when the time budget runs out are skipped.
+     *
+     * @param query Query of the first pass
+     * @param firstPass Top hits of the first pass, best first
+     * @param k Number of results to return
+     * @param category Category defined in questions.txt
+     * @param clue Clue defined in questions.txt
+     * @return TopDocs of the k best rescored hits
+     * @throws IOException
      */
-    private String processQuestionContent(String qContent) {
-        StringBuilder sb = new StringBuilder();
-
-        // Process qContent based on what user chose for indexing
-        Sentence sentence = new Sentence(qContent.toLowerCase());
-        if (this.indexMethod.equals(Constants.LEMMA)) {
-            for (String lemma: sentence.lemmas()) {
-                sb.append(lemma + " ");
-            }
-        } else if (this.indexMethod.equals(Constants.STEMMING)) {
-            PorterStemmer stemmer = new PorterStemmer();
-            for (String term: sentence.words()) {
-                stemmer.setCurrent(term);
-                stemmer.stem();
-                sb.append(stemmer.getCurrent() + " ");
+    private TopDocs rescore(Query query, TopDocs firstPass, int k, String category, String clue) throws IOException {
+        if (firstPass.scoreDocs.length == 0) {
+            // QueryRescorer expects at least one hit
+            return firstPass;
+        }
+        long deadline = System.nanoTime() + rescoreBudgetNanos;
+        rescoredSearches.increment();
+        TopDocs docs = firstPass;
+        for (int stage = 0; stage < 3; stage++) {
+            if (rescoreBudgetNanos > 0 && System.nanoTime() > deadline) {
+                rescoreOverBudget.increment();
+                break;
             }
-        } else {
-            for (String word: sentence.words()) {
-                sb.append(word + " ");
+            if (stage == 0 && Constants.rescoreCategoryWeight > 0) {
+                Query categoryQuery = termsQuery("category", analyze("category", category));
+                if (categoryQuery != null) {
+                    docs = QueryRescorer.rescore(getBm25Searcher(), docs, categoryQuery, Constants.rescoreCategoryWeight,
+                            docs.scoreDocs.length);
+                }
+            } else if (stage == 1 && Constants.rescoreProximityWeight > 0) {
+                Query proximity = proximityQuery(fielded ? "body" : "text", analyze("text", clue));
+                if (proximity != null) {
+                    docs = QueryRescorer.rescore(getBm25Searcher(), docs, proximity, Constants.rescoreProximityWeight,
+                            docs.scoreDocs.length);
+                }
+            } else if (stage == 2 && Constants.rescoreJmWeight > 0) {
+                docs = QueryRescorer.rescore(getJmSearcher(), docs, query, Constants.rescoreJmWeight,
+                        docs.scoreDocs.length);
             }
         }
+        if (docs.scoreDocs.length > k) {
+            docs = new TopDocs(docs.totalHits, Arrays.copyOf(docs.scoreDocs, k), docs.scoreDocs[0].score);
+        }
+        return docs;
+    }
+
+    /**
+     * Utility method used to get the searcher scoring the first pass &
+     * the BM25 stages of rescore(): the main searcher under BM25, one
+     * created on first use otherwise
+     *
+     * @return IndexSearcher over the same reader
+     */
+    private synchronized IndexSearcher getBm25Searcher() {
+        if (queryMethod.equals(Constants.BM25)) {
+            return searcher;
+        }
+        if (bm25Searcher == null) {
+            bm25Searcher = createSearcher(Constants.BM25);
+        }
+        return bm25Searcher;
+    }
+
+    /**
+     * Utility method used to get the searcher scoring the Jelinek Mercer
+     * stage of rescore(), created on first use
+     *
+     * @return IndexSearcher over the same reader
+     */
+    private synchronized IndexSearcher getJmSearcher() {
+        if (jmSearcher == null) {
+            jmSearcher = new IndexSearcher(reader);
+            jmSearcher.setSimilarity(createSimilarity(Constants.JM));
+        }
+        return jmSearcher;
+    }
+
+    /**
+     * Utility method used to build a disjunction of terms in a field
+     *
+     * @return Query matching any of the terms, null if there are none
+     */
+    private static Query termsQuery(String field, List<String> terms) {
+        if (terms.isEmpty()) {
+            return null;
+        }
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (String term : terms) {
+            builder.add(new TermQuery(new Term(field, term)), BooleanClause.Occur.SHOULD);
+        }
+        return builder.build();
+    }
 
-        return sb.toString();
+    /**
+     * Utility method used to build the proximity signal of a clue: a
+     * sloppy phrase for every pair of consecutive terms, so documents
+     * using the words of the clue together score higher
+     *
+     * @return Query over the pairs, null if the clue has a single term
+     */
+    private static Query proximityQuery(String field, List<String> terms) {
+        if (terms.size() < 2) {
+            return null;
+        }
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (int i = 1; i < terms.size(); i++) {
+            builder.add(new PhraseQuery(Constants.rescoreSlop, field, terms.get(i - 1), terms.get(i)),
+                    BooleanClause.Occur.SHOULD);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Looks up the title of every hit. Segments of lean indexes hold the
+     * titles in doc values, read in docId order; other segments fall
+     * back to loading the stored title field only.
+     *
+     * @param hits Hits returned by the searcher
+     * @return Array of titles, in the same order as hits
+     * @throws IOException
+     */
+    private String[] fetchTitles(ScoreDoc[] hits) throws IOException {
+        String[] titles = new String[hits.length];
+        Integer[] order = new Integer[hits.length];
+        for (int i = 0; i < hits.length; i++) {
+            order[i] = i;
+        }
+        // Doc values iterators only move forward
+        Arrays.sort(order, (a, b) -> Integer.compare(hits[a].doc, hits[b].doc));
+
+        List<LeafReaderContext> leaves = reader.leaves();
+        SortedDocValues values = null;
+        int leaf = -1;
+        for (int i : order) {
+            int docId = hits[i].doc;
+            int hitLeaf = ReaderUtil.subIndex(docId, leaves);
+            if (hitLeaf != leaf) {
+                leaf = hitLeaf;
+                values = leaves.get(leaf).reader().getSortedDocValues("title");
+            }
+            int segmentDocId = docId - leaves.get(leaf).docBase;
+            if (values != null && values.advanceExact(segmentDocId)) {
+                titles[i] = values.lookupOrd(values.ordValue()).utf8ToString();
+            } else {
+                titles[i] = searcher.doc(docId, TITLE_FIELD).get("title");
+            }
+        }
+        return titles;
     }
 }
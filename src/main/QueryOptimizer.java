@@ -0,0 +1,125 @@
+package main;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * QueryOptimizer chooses which terms of a question are worth a clause.
+ * Terms absent from the index match nothing, & terms found in most
+ * documents (near-stopwords) walk long posting lists for very little
+ * score, so both are dropped; the rarest terms are then kept up to a
+ * maximum number of clauses. See QueryEngine.buildOptimizedQuery().
+ *
+ * Document frequencies are read when the query is built, so a cached
+ * query keeps the selection made against the reader it was built on.
+ */
+public class QueryOptimizer {
+    private final double maxDocFreq;
+    private final int maxClauses;
+    private final double minShouldMatch;
+
+    // Running statistics
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder keptTerms = new LongAdder();
+    private final LongAdder absentTerms = new LongAdder();
+    private final LongAdder frequentTerms = new LongAdder();
+    private final LongAdder cappedTerms = new LongAdder();
+
+    public QueryOptimizer() {
+        this(Constants.queryMaxDocFreq, Constants.queryMaxClauses, Constants.queryMinShouldMatch);
+    }
+
+    /**
+     * @param maxDocFreq Largest fraction of the documents a term may occur in
+     * @param maxClauses Largest number of terms kept per query
+     * @param minShouldMatch Fraction of the kept terms a document must match, 0 for any
+     */
+    public QueryOptimizer(double maxDocFreq, int maxClauses, double minShouldMatch) {
+        this.maxDocFreq = maxDocFreq;
+        this.maxClauses = Math.max(1, maxClauses);
+        this.minShouldMatch = minShouldMatch;
+    }
+
+    /**
+     * Selects the terms to search for. When every term is too frequent,
+     * the rarest one is kept so the question still gets an answer.
+     *
+     * @param reader Reader over the index being searched
+     * @param terms Distinct terms of the question
+     * @return List of the terms to keep, rarest first
+     * @throws IOException
+     */
+    public List<Term> select(IndexReader reader, Collection<Term> terms) throws IOException {
+        long maxFreq = (long) Math.floor(maxDocFreq * reader.maxDoc());
+        List<Term> kept = new ArrayList<>(terms.size());
+        List<Integer> freqs = new ArrayList<>(terms.size());
+        Term rarestFrequent = null;
+        int rarestFrequentFreq = Integer.MAX_VALUE;
+        for (Term term : terms) {
+            int freq = reader.docFreq(term);
+            if (freq == 0) {
+                absentTerms.increment();
+            } else if (freq > maxFreq) {
+                frequentTerms.increment();
+                if (freq < rarestFrequentFreq) {
+                    rarestFrequent = term;
+                    rarestFrequentFreq = freq;
+                }
+            } else {
+                kept.add(term);
+                freqs.add(freq);
+            }
+        }
+        if (kept.isEmpty() && rarestFrequent != null) {
+            frequentTerms.decrement();
+            kept.add(rarestFrequent);
+            freqs.add(rarestFrequentFreq);
+        }
+
+        // Rarest (highest idf) terms first, ties in question order
+        Integer[] order = new Integer[kept.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(freqs.get(a), freqs.get(b)));
+        List<Term> selected = new ArrayList<>(Math.min(order.length, maxClauses));
+        for (int i = 0; i < order.length && i < maxClauses; i++) {
+            selected.add(kept.get(order[i]));
+        }
+
+        queries.increment();
+        keptTerms.add(selected.size());
+        cappedTerms.add(kept.size() - selected.size());
+        return selected;
+    }
+
+    /**
+     * Utility method used to get the minimum number of SHOULD clauses a
+     * document must match
+     *
+     * @param numClauses Number of clauses of the query
+     * @return int minimum number of clauses to match, 0 for any
+     */
+    public int getMinShouldMatch(int numClauses) {
+        return minShouldMatch > 0 ? (int) Math.ceil(minShouldMatch * numClauses) : 0;
+    }
+
+    /**
+     * Summarizes the selections made so far, e.g. "queries=100
+     * clauses/query=7.5 absent=20 frequent=310 capped=0"
+     *
+     * @return String summary of the optimizer statistics
+     */
+    public String summary() {
+        return String.format("queries=%d clauses/query=%.1f absent=%d frequent=%d capped=%d", queries.sum(),
+                queries.sum() == 0 ? 0 : keptTerms.doubleValue() / queries.sum(), absentTerms.sum(),
+                frequentTerms.sum(), cappedTerms.sum());
+    }
+}
@@ -0,0 +1,442 @@
+package main;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * QueryServer keeps a warm searcher per index method (per shard of
+ * sharded indexes) & answers queries sent as JSON lines, either on
+ * stdin/stdout or on a local socket.
+ *
+ * Request:  {"category": "NEWSPAPERS", "clue": "...", "index": "2", "similarity": "1", "k": 10}
+ * Response: {"results": [{"title": "...", "score": 1.23}, ...], "tookMs": 0.8}
+ *
+ * "index" & "similarity" use the menu values from Constants & are
+ * optional, as is "k". {"command": "refresh"} reopens any rebuilt index
+ * & {"command": "stats"} reports the latency percentiles & cache
+ * statistics. Parsed queries & results are cached (see QueryCache).
+ * Searchers are also refreshed in the background every
+ * Constants.serverRefreshSeconds.
+ *
+ * Indexes are opened in the Constants.directoryMode; the heap & direct
+ * copies only pick up a rebuilt index when the server restarts.
+ */
+public class QueryServer {
+    private Map<String, IndexEngine> indexEngines = new LinkedHashMap<>();
+    private Map<String, List<SearcherManager>> managers = new LinkedHashMap<>();
+    private List<Directory> directories = new ArrayList<>();
+
+    // Reader over the current shards of each sharded index, & those shards
+    private Map<String, MultiReader> shardReaders = new HashMap<>();
+    private Map<String, IndexReader[]> currentShards = new HashMap<>();
+    private String defaultIndexMethod;
+
+    private LatencyHistogram latency = new LatencyHistogram();
+    private QueryCache cache = new QueryCache();
+    private ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        // Must not keep the JVM alive once the input is exhausted
+        Thread thread = new Thread(runnable, "searcher-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public QueryServer(String... indexMethods) throws IOException {
+        for (String indexMethod : indexMethods) {
+            IndexEngine indexEngine = new IndexEngine(indexMethod);
+            List<SearcherManager> shards = new ArrayList<>();
+            for (String shardPath : indexEngine.getShardPaths()) {
+                Directory index = QueryEngine.openDirectory(shardPath);
+                directories.add(index);
+                if (!DirectoryReader.indexExists(index)) {
+                    shards = null;
+                    break;
+                }
+                shards.add(new SearcherManager(index, null));
+            }
+            if (shards == null) {
+                System.err.println("No index at '" + indexEngine.getIndexPath() + "', skipping");
+                continue;
+            }
+            indexEngines.put(indexMethod, indexEngine);
+            managers.put(indexMethod, shards);
+        }
+        if (managers.isEmpty()) {
+            throw new IOException("No index available to serve, please build one first");
+        }
+        defaultIndexMethod = managers.keySet().iterator().next();
+    }
+
+    /**
+     * Warms up every index (loads NLP models, touches the index files &
+     * JIT-compiles the query path) by running the first
+     * Constants.warmupQuestions of questions.txt, then starts the
+     * background refresh. Reports the latency of the first question
+     * before & after warming up, & the memory used once done.
+     */
+    public void start() {
+        List<Question> sample = new ArrayList<>();
+        try {
+            List<Question> questions = Question.load(Constants.pathToQuestions);
+            sample.addAll(questions.subList(0, Math.min(Constants.warmupQuestions, questions.size())));
+        } catch (FileNotFoundException ex) {
+            System.err.println("No " + Constants.pathToQuestions + " to warm up with");
+        }
+        if (sample.isEmpty()) {
+            sample.add(new Question("warm up", "warm up the searcher", ""));
+        }
+
+        for (String indexMethod : managers.keySet()) {
+            // Not cached, so every run goes through the whole query path
+            Question first = sample.get(0);
+            long start = System.nanoTime();
+            query(indexMethod, Constants.BM25, first.getCategory(), first.getClue(), 1, false);
+            long cold = System.nanoTime() - start;
+            for (Question question : sample) {
+                query(indexMethod, Constants.BM25, question.getCategory(), question.getClue(), Constants.serverDefaultK, false);
+            }
+            long warmup = System.nanoTime() - start;
+            start = System.nanoTime();
+            query(indexMethod, Constants.BM25, first.getCategory(), first.getClue(), 1, false);
+            long warm = System.nanoTime() - start;
+            System.err.println(String.format("Warmed up index '%s' (%s) with %d questions in %.2fs: "
+                            + "first query %.2fms cold, %.2fms warm", indexEngines.get(indexMethod).getIndexPath(),
+                    Constants.directoryMode, sample.size(), warmup / 1e9, cold / 1e6, warm / 1e6));
+        }
+        System.err.println("Memory: " + memorySummary());
+        refresher.scheduleWithFixedDelay(this::refresh, Constants.serverRefreshSeconds,
+                Constants.serverRefreshSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Utility method used to report the memory used by the process:
+     * resident set (Linux only), Java heap, & direct & mapped buffers
+     *
+     * @return String summary of the memory usage, in MB
+     */
+    public static String memorySummary() {
+        StringBuilder summary = new StringBuilder();
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    long kb = Long.parseLong(line.replaceAll("[^0-9]", ""));
+                    summary.append(String.format("resident=%.1fMB ", kb / 1024.0));
+                }
+            }
+        } catch (IOException | NumberFormatException ex) {
+            // Not available on this platform
+        }
+        Runtime runtime = Runtime.getRuntime();
+        summary.append(String.format("heap=%.1fMB", (runtime.totalMemory() - runtime.freeMemory()) / 1048576.0));
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (!pool.getName().equals("direct") && !pool.getName().equals("mapped")) {
+                continue;
+            }
+            summary.append(String.format(" %s=%.1fMB", pool.getName(), pool.getMemoryUsed() / 1048576.0));
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Answers requests read line by line from the given input until it
+     * is exhausted, writing one response line per request
+     *
+     * @param in Source of JSON requests
+     * @param out Destination of JSON responses
+     * @throws IOException
+     */
+    public void serve(BufferedReader in, PrintWriter out) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            out.println(handle(line));
+            out.flush();
+        }
+    }
+
+    /**
+     * Listens on the given loopback port, serving each connection on its
+     * own thread. Never returns unless the socket fails.
+     *
+     * @param port Local port to listen on
+     * @throws IOException
+     */
+    public void serve(int port) throws IOException {
+        ExecutorService connections = Executors.newCachedThreadPool();
+        try (ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            System.err.println("Listening on " + serverSocket.getLocalSocketAddress());
+            while (true) {
+                Socket socket = serverSocket.accept();
+                connections.submit(() -> {
+                    try (Socket s = socket;
+                         BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+                         PrintWriter out = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+                        serve(in, out);
+                    } catch (IOException ex) {
+                        ex.printStackTrace();
+                    }
+                });
+            }
+        } finally {
+            connections.shutdownNow();
+        }
+    }
+
+    /**
+     * Handles a single JSON request line. A failing request is answered
+     * with an error & never stops the server.
+     *
+     * @param line JSON request
+     * @return JSON response
+     */
+    public String handle(String line) {
+        try {
+            return handleRequest(line);
+        } catch (RuntimeException ex) {
+            ex.printStackTrace();
+            return error("Request failed: " + ex);
+        }
+    }
+
+    private String handleRequest(String line) {
+        JsonObject request;
+        try (JsonReader reader = Json.createReader(new StringReader(line))) {
+            request = reader.readObject();
+        } catch (JsonException | IllegalStateException ex) {
+            return error("Malformed request: " + ex.getMessage());
+        }
+
+        String command = request.getString("command", "");
+        if (command.equals("refresh")) {
+            refresh();
+            return Json.createObjectBuilder().add("refreshed", true).build().toString();
+        } else if (command.equals("stats")) {
+            return stats().toString();
+        } else if (!command.isEmpty()) {
+            return error("Unknown command: " + command);
+        }
+
+        String indexMethod = request.getString("index", defaultIndexMethod);
+        if (!managers.containsKey(indexMethod)) {
+            return error("Index not available: " + indexMethod);
+        }
+        String queryMethod = request.getString("similarity", Constants.BM25);
+        int k = request.getInt("k", Constants.serverDefaultK);
+        if (k < 1 || k > Constants.serverMaxK) {
+            return error("k must be between 1 & " + Constants.serverMaxK + ": " + k);
+        }
+
+        long start = System.nanoTime();
+        ArrayList<Result> results = query(indexMethod, queryMethod,
+                request.getString("category", ""), request.getString("clue", ""), k, true);
+        long took = System.nanoTime() - start;
+        latency.record(took);
+
+        JsonArrayBuilder hits = Json.createArrayBuilder();
+        for (Result result : results) {
+            hits.add(Json.createObjectBuilder()
+                    .add("title", result.getTitle())
+                    .add("score", result.getDocScore()));
+        }
+        return Json.createObjectBuilder()
+                .add("results", hits)
+                .add("tookMs", took / 1e6)
+                .build().toString();
+    }
+
+    /**
+     * Runs the query against the current searcher of the given index
+     *
+     * @param useCache Whether the query cache may be used
+     * @return List of the top k Results
+     */
+    private ArrayList<Result> query(String indexMethod, String queryMethod, String category, String clue, int k,
+                                    boolean useCache) {
+        List<SearcherManager> shards = managers.get(indexMethod);
+        IndexSearcher[] searchers = new IndexSearcher[shards.size()];
+        IndexReader reader = null;
+        try {
+            for (int i = 0; i < searchers.length; i++) {
+                searchers[i] = shards.get(i).acquire();
+            }
+            reader = acquireReader(indexMethod, searchers);
+            QueryEngine queryEngine = new QueryEngine(indexEngines.get(indexMethod),
+                    reader, queryMethod, indexMethod);
+            queryEngine.setCache(useCache ? cache : null);
+            return queryEngine.search(queryEngine.buildQuery(category, clue), k, category, clue);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return new ArrayList<>();
+        } finally {
+            try {
+                if (reader != null) {
+                    reader.decRef();
+                }
+                for (int i = 0; i < searchers.length; i++) {
+                    if (searchers[i] != null) {
+                        shards.get(i).release(searchers[i]);
+                    }
+                }
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Gets a reader over the acquired shards of the index, which the
+     * caller must decRef() once done. The MultiReader over a sharded
+     * index is only recreated when a shard was refreshed, so cached
+     * results stay valid across requests.
+     *
+     * @param indexMethod Index the searchers were acquired from
+     * @param searchers Acquired searcher of every shard
+     * @return IndexReader over all shards
+     * @throws IOException
+     */
+    private IndexReader acquireReader(String indexMethod, IndexSearcher[] searchers) throws IOException {
+        if (searchers.length == 1) {
+            IndexReader reader = searchers[0].getIndexReader();
+            reader.incRef();
+            return reader;
+        }
+
+        IndexReader[] shards = new IndexReader[searchers.length];
+        for (int i = 0; i < searchers.length; i++) {
+            shards[i] = searchers[i].getIndexReader();
+        }
+        synchronized (shardReaders) {
+            MultiReader reader = shardReaders.get(indexMethod);
+            if (reader == null || !Arrays.equals(currentShards.get(indexMethod), shards)) {
+                // Holds a reference to each shard until the last request using it is done
+                if (reader != null) {
+                    reader.decRef();
+                }
+                reader = new MultiReader(shards, false);
+                shardReaders.put(indexMethod, reader);
+                currentShards.put(indexMethod, shards);
+            }
+            reader.incRef();
+            return reader;
+        }
+    }
+
+    /**
+     * Swaps in the latest commit of every index, if it changed
+     */
+    public void refresh() {
+        for (Map.Entry<String, List<SearcherManager>> entry : managers.entrySet()) {
+            try {
+                for (SearcherManager manager : entry.getValue()) {
+                    manager.maybeRefresh();
+                }
+            } catch (IOException ex) {
+                System.err.println("Failed to refresh index " + entry.getKey());
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Utility method used to report the query latency percentiles
+     *
+     * @return JsonObject of latency statistics (milliseconds)
+     */
+    public JsonObject stats() {
+        return Json.createObjectBuilder()
+                .add("queries", latency.getCount())
+                .add("meanMs", latency.getMeanNanos() / 1e6)
+                .add("p50Ms", latency.getPercentileNanos(50) / 1e6)
+                .add("p99Ms", latency.getPercentileNanos(99) / 1e6)
+                .add("maxMs", latency.getMaxNanos() / 1e6)
+                .add("queryCache", levelStats(cache.getQueryLevel()))
+                .add("resultCache", levelStats(cache.getResultLevel()))
+                .add("directoryMode", Constants.directoryMode)
+                .add("memory", memorySummary())
+                .build();
+    }
+
+    private static JsonObject levelStats(QueryCache.Level<?, ?> level) {
+        return Json.createObjectBuilder()
+                .add("size", level.size())
+                .add("hits", level.getHits())
+                .add("misses", level.getMisses())
+                .add("evictions", level.getEvictions())
+                .add("hitRate", level.getHitRate())
+                .build();
+    }
+
+    /**
+     * Stops the background refresh, closes all searchers & prints the
+     * latency summary
+     */
+    public void close() {
+        refresher.shutdownNow();
+        try {
+            synchronized (shardReaders) {
+                for (MultiReader reader : shardReaders.values()) {
+                    reader.decRef();
+                }
+                shardReaders.clear();
+            }
+            for (List<SearcherManager> shards : managers.values()) {
+                for (SearcherManager manager : shards) {
+                    manager.close();
+                }
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        for (Directory index : directories) {
+            try {
+                index.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        System.err.println("Query latency: " + latency.summary());
+        System.err.println("Query cache: " + cache.summary());
+        IndexEngine.printNormalizationCache(System.err);
+        Metrics.report(System.err);
+    }
+
+    private static String error(String message) {
+        return Json.createObjectBuilder().add("error", message).build().toString();
+    }
+}
@@ -0,0 +1,75 @@
+package main;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+public class Question {
+    private String category;
+    private String clue;
+    private String answer;
+
+    public Question(String category, String clue, String answer) {
+        this.category = category;
+        this.clue = clue;
+        this.answer = answer;
+    }
+
+    /**
+     * Public accessor of the category attribute
+     *
+     * @return category instance variable
+     */
+    public String getCategory() {
+        return this.category;
+    }
+
+    /**
+     * Public accessor of the clue attribute
+     *
+     * @return clue instance variable
+     */
+    public String getClue() {
+        return this.clue;
+    }
+
+    /**
+     * Public accessor of the answer attribute
+     *
+     * @return answer instance variable
+     */
+    public String getAnswer() {
+        return this.answer;
+    }
+
+    /**
+     * Reads all questions from the given file. Format of each question:
+     * (1) Category
+     * (2) Clue
+     * (3) Answer
+     * (4) Newline (whitespace)
+     *
+     * @param path Path to the questions file
+     * @return List of Questions in file order
+     * @throws FileNotFoundException
+     */
+    public static List<Question> load(String path) throws FileNotFoundException {
+        List<Question> questions = new ArrayList<>();
+
+        try (Scanner sc = new Scanner(new File(path))) {
+            while (sc.hasNextLine()) {
+                // Extract items pertaining to THIS question
+                String category = sc.nextLine().trim();
+                String clue = sc.nextLine().trim();
+                String answer = sc.nextLine().trim();
+                if (sc.hasNextLine()) {
+                    sc.nextLine(); // Ingest newline (unused)
+                }
+                questions.add(new Question(category, clue, answer));
+            }
+        }
+        return questions;
+    }
+}
@@ -1,23 +1,23 @@
 package main;
 
-import org.apache.lucene.document.Document;
-
 public class Result {
-    private Document DocName;
+    private String title;
     private double docScore = 0;
+    private int docId;
 
-    public Result(Document DocName, double docScore) {
-        this.DocName = DocName;
+    public Result(String title, double docScore, int docId) {
+        this.title = title;
         this.docScore = docScore;
+        this.docId = docId;
     }
 
     /**
-     * Public accessor of the DocName attribute
+     * Public accessor of the title attribute
      *
-     * @return DocName instance variable
+     * @return title instance variable
      */
-    public Document getDocName() {
-        return this.DocName;
+    public String getTitle() {
+        return this.title;
     }
 
     /**
@@ -28,4 +28,14 @@ public class Result {
     public double getDocScore() {
         return this.docScore;
     }
+
+    /**
+     * Public accessor of the docId attribute, only valid for the
+     * IndexReader that produced the Result
+     *
+     * @return docId instance variable
+     */
+    public int getDocId() {
+        return this.docId;
+    }
 }
@@ -0,0 +1,143 @@
+package main;
+
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.FlagsAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * SentenceTokenizer splits text into sentences, then each sentence into
+ * the words of a StandardTokenizer, so it produces the same tokens as a
+ * StandardTokenizer over the whole text. The first token of every
+ * sentence carries the SENTENCE_START flag, which lets LemmaFilter POS
+ * tag whole sentences.
+ *
+ * Wiki content is lowercased by WikiParser, so sentences cannot be told
+ * apart by capitalization (as java.text.BreakIterator does): a sentence
+ * ends after '.', '!' or '?' followed by whitespace, closing quotes &
+ * brackets included.
+ */
+public final class SentenceTokenizer extends Tokenizer {
+    // FlagsAttribute bit of the first token of a sentence
+    public static final int SENTENCE_START = 1;
+
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+    private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+    private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+    private final TypeAttribute typeAtt = addAttribute(TypeAttribute.class);
+    private final FlagsAttribute flagsAtt = addAttribute(FlagsAttribute.class);
+
+    // Splits the current sentence into words
+    private final StandardTokenizer words = new StandardTokenizer();
+    private final CharTermAttribute wordTermAtt = words.addAttribute(CharTermAttribute.class);
+    private final OffsetAttribute wordOffsetAtt = words.addAttribute(OffsetAttribute.class);
+    private final PositionIncrementAttribute wordPosIncAtt = words.addAttribute(PositionIncrementAttribute.class);
+    private final TypeAttribute wordTypeAtt = words.addAttribute(TypeAttribute.class);
+
+    // Whole text of the field & the current sentence within it
+    private final StringBuilder text = new StringBuilder();
+    private final char[] buffer = new char[4096];
+    private int sentenceStart = 0;
+    private int sentenceEnd = 0;
+    private boolean inSentence = false;
+    private boolean firstWord = false;
+
+    @Override
+    public boolean incrementToken() throws IOException {
+        clearAttributes();
+        while (true) {
+            if (inSentence) {
+                if (words.incrementToken()) {
+                    termAtt.copyBuffer(wordTermAtt.buffer(), 0, wordTermAtt.length());
+                    offsetAtt.setOffset(correctOffset(sentenceStart + wordOffsetAtt.startOffset()),
+                            correctOffset(sentenceStart + wordOffsetAtt.endOffset()));
+                    posIncAtt.setPositionIncrement(wordPosIncAtt.getPositionIncrement());
+                    typeAtt.setType(wordTypeAtt.type());
+                    flagsAtt.setFlags(firstWord ? SENTENCE_START : 0);
+                    firstWord = false;
+                    return true;
+                }
+                closeSentence();
+            }
+            if (sentenceEnd >= text.length()) {
+                return false;
+            }
+            sentenceStart = sentenceEnd;
+            sentenceEnd = endOfSentence(text, sentenceStart);
+            words.setReader(new StringReader(text.substring(sentenceStart, sentenceEnd)));
+            words.reset();
+            inSentence = true;
+            firstWord = true;
+        }
+    }
+
+    /**
+     * Utility method used to find where the sentence starting at the
+     * given position ends, i.e. after its terminal punctuation & any
+     * closing quotes or brackets, or at the end of the text
+     *
+     * @param text Text to split
+     * @param from Start of the sentence
+     * @return int end of the sentence (exclusive)
+     */
+    static int endOfSentence(CharSequence text, int from) {
+        int length = text.length();
+        for (int i = from; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '.' || c == '!' || c == '?') {
+                int end = i + 1;
+                while (end < length && isClosing(text.charAt(end))) {
+                    end++;
+                }
+                if (end == length || Character.isWhitespace(text.charAt(end))) {
+                    return end;
+                }
+            }
+        }
+        return length;
+    }
+
+    private static boolean isClosing(char c) {
+        return c == '"' || c == '\'' || c == ')' || c == ']' || c == '.' || c == '!' || c == '?';
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        closeSentence();
+        text.setLength(0);
+        int read;
+        while ((read = input.read(buffer)) > 0) {
+            text.append(buffer, 0, read);
+        }
+        sentenceStart = 0;
+        sentenceEnd = 0;
+    }
+
+    @Override
+    public void end() throws IOException {
+        super.end();
+        int finalOffset = correctOffset(text.length());
+        offsetAtt.setOffset(finalOffset, finalOffset);
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        closeSentence();
+    }
+
+    private void closeSentence() throws IOException {
+        if (inSentence) {
+            words.end();
+            words.close();
+            inSentence = false;
+        }
+    }
+}
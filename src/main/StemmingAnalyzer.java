@@ -0,0 +1,44 @@
+package main;
+
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.StopFilter;
+import org.apache.lucene.analysis.StopwordAnalyzerBase;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+
+/**
+ * Analyzer used for Constants.STEMMING: the StandardAnalyzer chain
+ * followed by the Snowball Porter stemmer, memoized by CachedStemFilter.
+ */
+public class StemmingAnalyzer extends StopwordAnalyzerBase {
+    // Bump whenever the chain changes, so cached tokens are rebuilt (see CorpusCache)
+    private static final int VERSION = 1;
+
+    public StemmingAnalyzer() {
+        super(EnglishAnalyzer.ENGLISH_STOP_WORDS_SET);
+    }
+
+    /**
+     * Public accessor of the version of the tokens produced by the chain
+     *
+     * @return String version of the chain & its normalizer
+     */
+    public static String getChainVersion() {
+        return "stemming-analyzer-" + VERSION + " " + CachedStemFilter.getVersion();
+    }
+
+    @Override
+    protected TokenStreamComponents createComponents(String fieldName) {
+        StandardTokenizer source = new StandardTokenizer();
+        TokenStream result = new LowerCaseFilter(source);
+        result = new StopFilter(result, stopwords);
+        result = new CachedStemFilter(result);
+        return new TokenStreamComponents(source, result);
+    }
+
+    @Override
+    protected TokenStream normalize(String fieldName, TokenStream in) {
+        return new LowerCaseFilter(in);
+    }
+}
@@ -0,0 +1,373 @@
+package main;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * WikiParser streams the Articles of a wiki file in the
+ * [[Title]] / CATEGORIES: / ==Header== format. The file is memory-mapped
+ * & decoded in fixed-size chunks, & each line is classified & cleaned
+ * in a single pass over a reused char buffer, so the only Strings
+ * allocated are the title, category & content of each Article.
+ *
+ * Content & categories are lowercased & stripped of [tpl] tags, the
+ * same way IndexEngine's extract/sanitize helpers process lines. The
+ * target of #REDIRECT stubs is kept in its original case.
+ */
+public class WikiParser implements Iterator<Article>, Closeable {
+    // Size of each mapped region & of the decoded char chunks
+    private static final long REGION_SIZE = 64L << 20;
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    // Longest UTF-8 sequence, used to avoid splitting a char across regions
+    private static final int MAX_BYTES_PER_CHAR = 4;
+
+    private static final String CATEGORY_PREFIX = "CATEGORIES:";
+    private static final String REDIRECT_PREFIX = "#REDIRECT";
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    // Current mapped region & decoded chunk
+    private MappedByteBuffer region;
+    private long regionStart = 0;
+    private final CharBuffer chunk = CharBuffer.allocate(CHUNK_SIZE);
+    private final char[] chunkChars = chunk.array();
+    private int chunkPos = 0;
+    private int chunkLimit = 0;
+
+    // Current line, reused across lines
+    private char[] line = new char[1024];
+    private int lineLength = 0;
+
+    // Article being assembled
+    private String title = "";
+    private String category = "";
+    private final StringBuilder content = new StringBuilder();
+    private String redirect;
+
+    private Article next;
+    private boolean exhausted = false;
+
+    // Time spent cleaning the lines of the current Article (see Metrics)
+    private long sanitizeNanos = 0;
+
+    public WikiParser(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.fileSize = channel.size();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !exhausted) {
+            long start = Metrics.start();
+            try {
+                next = readArticle();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            if (Metrics.enabled && next != null) {
+                Metrics.recordNanos(Metrics.Stage.PARSE, System.nanoTime() - start - sanitizeNanos);
+                Metrics.recordNanos(Metrics.Stage.SANITIZE, sanitizeNanos);
+                Metrics.increment(Metrics.Counter.ARTICLES);
+            }
+            sanitizeNanos = 0;
+        }
+        return next != null;
+    }
+
+    @Override
+    public Article next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Article article = next;
+        next = null;
+        return article;
+    }
+
+    @Override
+    public void close() throws IOException {
+        region = null;
+        channel.close();
+    }
+
+    /**
+     * Reads lines until the next Article is complete, i.e. until the
+     * following title or the end of the file
+     *
+     * @return Article, null once the file is exhausted
+     * @throws IOException
+     */
+    private Article readArticle() throws IOException {
+        while (readLine()) {
+            Article finished = processLine();
+            if (finished != null) {
+                return finished;
+            }
+        }
+
+        // Wiki done finished, hand out the last article
+        exhausted = true;
+        return title.isEmpty() ? null : finishArticle();
+    }
+
+    /**
+     * Classifies the current line & applies it to the Article being
+     * assembled. Equivalent to the isTitle/isCategory/isHeader checks of
+     * IndexEngine, but performed on the char buffer without copies.
+     *
+     * @return Previous Article if the line starts a new one, null otherwise
+     */
+    private Article processLine() {
+        // Trim, as String.trim() would
+        int start = 0;
+        int end = lineLength;
+        while (start < end && line[start] <= ' ') {
+            start++;
+        }
+        while (end > start && line[end - 1] <= ' ') {
+            end--;
+        }
+        if (start == end) {
+            return null;
+        }
+
+        if (line[start] == '[' && isTitle(start, end)) {
+            Article finished = title.isEmpty() ? null : finishArticle();
+            title = new String(line, start + 2, Math.max(0, end - start - 4));
+            return finished;
+        } else if (regionMatches(start, end, CATEGORY_PREFIX)) {
+            // Skip "CATEGORIES: "
+            int from = Math.min(start + CATEGORY_PREFIX.length() + 1, end);
+            StringBuilder sb = new StringBuilder(end - from);
+            for (int i = from; i < end; i++) {
+                sb.append(Character.toLowerCase(line[i]));
+            }
+            category = sb.toString();
+        } else if (line[start] == '=' && line[end - 1] == '=') {
+            // Header, drop the '=' markers
+            long sanitizeStart = Metrics.start();
+            separate();
+            for (int i = start; i < end; i++) {
+                if (line[i] != '=') {
+                    content.append(Character.toLowerCase(line[i]));
+                }
+            }
+            sanitizeNanos += Metrics.enabled ? System.nanoTime() - sanitizeStart : 0;
+        } else {
+            if (content.length() == 0 && regionMatchesIgnoreCase(start, end, REDIRECT_PREFIX)) {
+                redirect = extractRedirect(start + REDIRECT_PREFIX.length(), end);
+            }
+
+            // Text, replacing [tpl] & [/tpl] tags with spaces
+            long sanitizeStart = Metrics.start();
+            separate();
+            for (int i = start; i < end; i++) {
+                char c = line[i];
+                if (c == '[' && regionMatches(i, end, "[tpl]")) {
+                    content.append(' ');
+                    i += 4;
+                } else if (c == '[' && regionMatches(i, end, "[/tpl]")) {
+                    content.append(' ');
+                    i += 5;
+                } else {
+                    content.append(Character.toLowerCase(c));
+                }
+            }
+            sanitizeNanos += Metrics.enabled ? System.nanoTime() - sanitizeStart : 0;
+        }
+        return null;
+    }
+
+    /**
+     * Utility method used to determine in a single pass whether the
+     * line between start & end is a Title, i.e. contains "[[" & "]]" but
+     * no "File:" or "Image:" link
+     *
+     * @return boolean true/false evaluation
+     */
+    private boolean isTitle(int start, int end) {
+        boolean opened = false;
+        boolean closed = false;
+        for (int i = start; i < end; i++) {
+            char c = line[i];
+            if (c == '[' && i + 1 < end && line[i + 1] == '[') {
+                opened = true;
+            } else if (c == ']' && i + 1 < end && line[i + 1] == ']') {
+                closed = true;
+            } else if ((c == 'F' && regionMatches(i, end, "File:"))
+                    || (c == 'I' && regionMatches(i, end, "Image:"))) {
+                return false;
+            }
+        }
+        return opened && closed;
+    }
+
+    /**
+     * Utility method used to check whether the line contains the given
+     * text at position from
+     *
+     * @return boolean true/false evaluation
+     */
+    private boolean regionMatches(int from, int end, String text) {
+        if (end - from < text.length()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (line[from + i] != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Same as regionMatches(), ignoring case
+     *
+     * @return boolean true/false evaluation
+     */
+    private boolean regionMatchesIgnoreCase(int from, int end, String text) {
+        if (end - from < text.length()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.toUpperCase(line[from + i]) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Utility method used to extract the target of a #REDIRECT line,
+     * e.g. "Balfour Declaration" out of
+     * "#REDIRECT Balfour Declaration [tpl]R from other capitalisation[/tpl]"
+     * or "#REDIRECT [[Balfour Declaration#History|...]]"
+     *
+     * @return Target title in its original case, null if there is none
+     */
+    private String extractRedirect(int from, int end) {
+        String target = new String(line, from, end - from);
+        int cut = target.indexOf("[tpl]");
+        if (cut >= 0) {
+            target = target.substring(0, cut);
+        }
+        target = target.replace("[[", "").replace("]]", "");
+        for (char c : new char[] {'|', '#'}) {
+            cut = target.indexOf(c);
+            if (cut >= 0) {
+                target = target.substring(0, cut);
+            }
+        }
+        target = target.trim();
+        if (target.startsWith(":")) {
+            target = target.substring(1).trim();
+        }
+        return target.isEmpty() ? null : target;
+    }
+
+    /**
+     * Utility method used to separate lines of content with a space
+     */
+    private void separate() {
+        if (content.length() > 0) {
+            content.append(' ');
+        }
+    }
+
+    /**
+     * Creates the Article assembled so far & resets the builders
+     *
+     * @return Article holding the current title, category & content
+     */
+    private Article finishArticle() {
+        Article article = new Article(title, category, content.toString(), redirect);
+        title = "";
+        category = "";
+        redirect = null;
+        content.setLength(0);
+        return article;
+    }
+
+    /**
+     * Reads the next line into the line buffer
+     *
+     * @return false once the end of the file has been reached
+     * @throws IOException
+     */
+    private boolean readLine() throws IOException {
+        lineLength = 0;
+        while (true) {
+            if (chunkPos == chunkLimit && !fillChunk()) {
+                return lineLength > 0;
+            }
+
+            int from = chunkPos;
+            while (chunkPos < chunkLimit && chunkChars[chunkPos] != '\n') {
+                chunkPos++;
+            }
+            appendToLine(from, chunkPos - from);
+
+            if (chunkPos < chunkLimit) {
+                // Consume the newline
+                chunkPos++;
+                return true;
+            }
+        }
+    }
+
+    private void appendToLine(int from, int length) {
+        if (lineLength + length > line.length) {
+            char[] grown = new char[Math.max(line.length * 2, lineLength + length)];
+            System.arraycopy(line, 0, grown, 0, lineLength);
+            line = grown;
+        }
+        System.arraycopy(chunkChars, from, line, lineLength, length);
+        lineLength += length;
+    }
+
+    /**
+     * Decodes the next chunk of chars, mapping the next region of the
+     * file whenever the current one runs out
+     *
+     * @return false once the end of the file has been reached
+     * @throws IOException
+     */
+    private boolean fillChunk() throws IOException {
+        chunk.clear();
+        while (chunk.position() == 0) {
+            boolean lastRegion = region != null && regionStart + region.limit() == fileSize;
+            if (region == null || (!lastRegion && region.remaining() < MAX_BYTES_PER_CHAR)) {
+                // Remap from the first byte not decoded yet
+                long start = region == null ? 0 : regionStart + region.position();
+                region = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, fileSize - start));
+                regionStart = start;
+                lastRegion = regionStart + region.limit() == fileSize;
+            }
+
+            decoder.decode(region, chunk, lastRegion);
+            if (lastRegion && !region.hasRemaining() && chunk.position() == 0) {
+                return false;
+            }
+        }
+        chunk.flip();
+        chunkPos = 0;
+        chunkLimit = chunk.limit();
+        return true;
+    }
+}
@@ -0,0 +1,64 @@
+package main;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks damaged cache files are detected before any of their Entries
+ * is replayed.
+ */
+class CorpusCacheTest {
+
+    @Test
+    void damagedCacheIsDeletedBeforeReplay() throws IOException {
+        TestCorpus.setUp();
+        Path source = Paths.get("src/resources", "wiki-0.txt");
+        CorpusCache cache = new CorpusCache("damaged", Constants.STEMMING,
+                new IndexEngine(Constants.STEMMING).getAnalyzer());
+        int numArticles = record(cache, source);
+        Path path = cache.getPath(source);
+
+        List<CorpusCache.Entry> replayed = new ArrayList<>();
+        assertTrue(cache.replay(source, replayed::add));
+        assertEquals(numArticles, replayed.size());
+
+        byte[] intact = Files.readAllBytes(path);
+        byte[] corrupt = intact.clone();
+        corrupt[corrupt.length * 3 / 4] ^= 0x55;
+        for (byte[] damaged : Arrays.asList(Arrays.copyOf(intact, intact.length / 2), corrupt)) {
+            Files.write(path, damaged);
+            replayed.clear();
+            assertFalse(cache.replay(source, replayed::add));
+            assertEquals(0, replayed.size());
+            assertFalse(Files.exists(path));
+        }
+    }
+
+    /**
+     * Parses & analyzes the source file into its cache file
+     *
+     * @return int number of Articles recorded
+     */
+    private static int record(CorpusCache cache, Path source) throws IOException {
+        int numArticles = 0;
+        try (WikiParser parser = new WikiParser(source); CorpusCache.Writer writer = cache.create(source)) {
+            while (parser.hasNext()) {
+                writer.add(cache.analyze(parser.next()));
+                numArticles++;
+            }
+            writer.commit();
+        }
+        return numArticles;
+    }
+}
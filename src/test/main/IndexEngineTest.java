@@ -0,0 +1,173 @@
+package main;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Builds the same corpus in different ways & checks the resulting
+ * indexes hold the same Documents & answer every question the same way.
+ */
+class IndexEngineTest {
+
+    @Test
+    void parallelBuildMatchesSerialBuild() throws IOException {
+        List<Question> questions = TestCorpus.loadQuestions();
+        IndexEngine serial = TestCorpus.build(Constants.STEMMING, "index/serial", engine -> engine.setNumWorkers(1));
+        IndexEngine parallel = TestCorpus.build(Constants.STEMMING, "index/parallel",
+                engine -> engine.setNumWorkers(TestCorpus.NUM_FILES));
+
+        List<List<String>> expected = TestCorpus.search(serial, Constants.STEMMING, questions);
+        assertTrue(TestCorpus.numDocs(serial) > 0);
+        assertTrue(expected.stream().anyMatch(hits -> !hits.isEmpty()));
+        assertEquals(TestCorpus.numDocs(serial), TestCorpus.numDocs(parallel));
+        assertEquals(expected, TestCorpus.search(parallel, Constants.STEMMING, questions));
+    }
+
+    @Test
+    void unreadableFileFailsTheBuild() throws IOException {
+        TestCorpus.setUp();
+        for (int numWorkers : new int[] {1, 2}) {
+            IndexEngine engine = new IndexEngine(Constants.STEMMING);
+            engine.setDataPath("index/unreadable");
+            engine.setNumWorkers(numWorkers);
+            engine.setFiles(Arrays.asList("wiki-0.txt", "missing.txt"));
+            TestCorpus.deleteRecursively(Paths.get(engine.getIndexPath()));
+
+            IOException ex = assertThrows(IOException.class, engine::buildIndex);
+            assertTrue(ex.getMessage().contains("missing.txt"), ex.getMessage());
+        }
+    }
+
+    @Test
+    void indexOfAnotherLayoutIsRebuilt() throws IOException {
+        IndexEngine engine = TestCorpus.build(Constants.STEMMING, "index/layout", indexEngine -> { });
+        List<String> expected = documents(engine);
+
+        // Pretends the index was built with another layout, by a build that also left a stray Document
+        try (Directory index = FSDirectory.open(Paths.get(engine.getIndexPath()));
+             IndexWriter writer = new IndexWriter(index, new IndexWriterConfig(engine.getAnalyzer()))) {
+            Map<String, String> userData = new HashMap<>(SegmentInfos.readLatestCommit(index).getUserData());
+            assertEquals(engine.getLayout(), userData.put("layout", "docs-1 full text other-analyzer"));
+            Document stray = new Document();
+            stray.add(new StringField("title", "Stray", Field.Store.YES));
+            writer.addDocument(stray);
+            writer.setLiveCommitData(userData.entrySet());
+            writer.commit();
+        }
+
+        IndexEngine rebuilt = new IndexEngine(Constants.STEMMING);
+        rebuilt.setDataPath("index/layout");
+        rebuilt.buildIndex();
+        assertEquals(expected, documents(rebuilt));
+        try (Directory index = FSDirectory.open(Paths.get(engine.getIndexPath()))) {
+            assertEquals(engine.getLayout(), IndexManifest.read(index).getLayout());
+        }
+    }
+
+    @Test
+    void changedFileReplacesAllItsDocuments() throws IOException {
+        TestCorpus.setUp();
+        Path first = Paths.get("src/resources", "dup-a.txt");
+        Path second = Paths.get("src/resources", "dup-b.txt");
+        List<String> files = Arrays.asList("dup-a.txt", "dup-b.txt");
+        try {
+            write(first, "[[Same]]", "CATEGORIES: Fruit", "an apple grows on a tree.");
+            write(second, "[[Same]]", "CATEGORIES: Fruit", "a pear is sweet.", "[[Other]]", "CATEGORIES: Fruit",
+                    "a plum is purple.");
+            IndexEngine incremental = TestCorpus.build(Constants.STEMMING, "index/incremental",
+                    engine -> engine.setFiles(files));
+
+            // Two articles titled Same in the changed file, one in the other, & Other removed
+            write(second, "[[Same]]", "CATEGORIES: Fruit", "a ripe pear is very sweet.", "[[Same]]",
+                    "CATEGORIES: Fruit", "a second pear.");
+            incremental.buildIndex();
+            IndexEngine full = TestCorpus.build(Constants.STEMMING, "index/full", engine -> engine.setFiles(files));
+
+            assertEquals(3, TestCorpus.numDocs(full));
+            assertEquals(documents(full), documents(incremental));
+        } finally {
+            Files.deleteIfExists(first);
+            Files.deleteIfExists(second);
+        }
+    }
+
+    private static void write(Path file, String... lines) throws IOException {
+        Files.write(file, Arrays.asList(lines), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Describes every live Document of the index by its stored fields,
+     * in sorted order
+     */
+    private static List<String> documents(IndexEngine engine) throws IOException {
+        List<String> documents = new ArrayList<>();
+        try (IndexReader reader = QueryEngine.openReader(engine.getShardPaths())) {
+            Bits liveDocs = MultiFields.getLiveDocs(reader);
+            for (int i = 0; i < reader.maxDoc(); i++) {
+                if (liveDocs == null || liveDocs.get(i)) {
+                    Document doc = reader.document(i);
+                    documents.add(doc.get("title") + " " + Arrays.toString(doc.getValues("text")));
+                }
+            }
+        }
+        Collections.sort(documents);
+        return documents;
+    }
+
+    @Test
+    void corpusCacheReplayMatchesFullBuild() throws IOException {
+        List<Question> questions = TestCorpus.loadQuestions();
+        IndexEngine uncached = TestCorpus.build(Constants.STEMMING, "index/uncached", engine -> engine.setCorpusCache(false));
+        TestCorpus.deleteRecursively(Paths.get(Constants.corpusCacheDir));
+        // The first cached build records the tokens, the second replays them
+        TestCorpus.build(Constants.STEMMING, "index/recorded", engine -> engine.setCorpusCache(true));
+        try (Stream<Path> files = Files.list(Paths.get(Constants.corpusCacheDir, "stemming"))) {
+            assertEquals(TestCorpus.NUM_FILES, files.count());
+        }
+        IndexEngine replayed = TestCorpus.build(Constants.STEMMING, "index/replayed", engine -> engine.setCorpusCache(true));
+
+        assertEquals(TestCorpus.numDocs(uncached), TestCorpus.numDocs(replayed));
+        assertEquals(TestCorpus.search(uncached, Constants.STEMMING, questions),
+                TestCorpus.search(replayed, Constants.STEMMING, questions));
+    }
+
+    @Test
+    void shardedIndexMatchesUnshardedIndex() throws IOException {
+        List<Question> questions = TestCorpus.loadQuestions();
+        IndexEngine unsharded = TestCorpus.build(Constants.STEMMING, "index/unsharded", engine -> engine.setNumShards(1));
+        IndexEngine sharded = TestCorpus.build(Constants.STEMMING, "index/sharded", engine -> engine.setNumShards(3));
+
+        assertEquals(3, sharded.getShardPaths().length);
+        assertEquals(TestCorpus.numDocs(unsharded), TestCorpus.numDocs(sharded));
+        // Term statistics span all the shards, so even the scores are the same
+        assertEquals(TestCorpus.search(unsharded, Constants.STEMMING, questions),
+                TestCorpus.search(sharded, Constants.STEMMING, questions));
+    }
+}
@@ -0,0 +1,52 @@
+package main;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that LemmaAnalyzer tags whole sentences, so the lemmas of a
+ * sentence are the same wherever it appears in a field.
+ */
+class LemmaAnalyzerTest {
+    private static final String SENTENCE = "she leaves the house when the leaves fall.";
+    private static final String FILLER = "yes. ";
+
+    @Test
+    void lemmasDoNotDependOnPositionInField() throws IOException {
+        try (Analyzer analyzer = new LemmaAnalyzer()) {
+            List<String> expected = analyze(analyzer, SENTENCE);
+            assertTrue(expected.contains("leave") && expected.contains("leaf"), expected.toString());
+
+            // Moves the sentence one token at a time, across a batch boundary
+            StringBuilder prefix = new StringBuilder();
+            for (int i = 0; i < 140; i++) {
+                List<String> lemmas = analyze(analyzer, prefix + SENTENCE);
+                assertEquals(expected, lemmas.subList(lemmas.size() - expected.size(), lemmas.size()),
+                        "after " + i + " sentences");
+                prefix.append(FILLER);
+            }
+        }
+    }
+
+    static List<String> analyze(Analyzer analyzer, String text) throws IOException {
+        List<String> terms = new ArrayList<>();
+        try (TokenStream stream = analyzer.tokenStream("text", text)) {
+            CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                terms.add(termAtt.toString());
+            }
+            stream.end();
+        }
+        return terms;
+    }
+}
@@ -0,0 +1,36 @@
+package main;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks caches saved to the same file, as by the workers of a
+ * PartitionedBuild, keep each other's entries.
+ */
+class NormalizationCacheTest {
+
+    @Test
+    void saveMergesTheEntriesOfOtherWriters() throws IOException {
+        Path path = Paths.get("index/normalization", "lemma-cache.tsv");
+        TestCorpus.deleteRecursively(path.getParent());
+
+        NormalizationCache first = new NormalizationCache("lemma", "test", 100);
+        NormalizationCache second = new NormalizationCache("lemma", "test", 100);
+        first.put(NormalizationCache.key("houses", "NNS"), "house");
+        second.put(NormalizationCache.key("leaves", "VBZ"), "leave");
+        first.save(path);
+        second.save(path);
+
+        NormalizationCache loaded = new NormalizationCache("lemma", "test", 100);
+        loaded.load(path);
+        assertEquals(2, loaded.size());
+        assertEquals("house", loaded.get(NormalizationCache.key("houses", "NNS")));
+        assertEquals("leave", loaded.get(NormalizationCache.key("leaves", "VBZ")));
+    }
+}
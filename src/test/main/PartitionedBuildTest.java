@@ -0,0 +1,48 @@
+package main;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Runs the workers of a PartitionedBuild in process & checks the merged
+ * index matches a single build, & that a failed merge leaves it intact.
+ */
+class PartitionedBuildTest {
+
+    @Test
+    void mergedIndexMatchesSingleBuildAndSurvivesFailedMerge() throws IOException {
+        List<Question> questions = TestCorpus.loadQuestions();
+        IndexEngine single = TestCorpus.build(Constants.NONE, "index/unpartitioned", engine -> { });
+        List<List<String>> expected = TestCorpus.search(single, Constants.NONE, questions);
+
+        IndexEngine merged = new IndexEngine(Constants.NONE);
+        Path partitions = Paths.get(merged.getIndexPath() + "-partitions");
+        TestCorpus.deleteRecursively(partitions);
+        PartitionedBuild build = new PartitionedBuild(Constants.NONE);
+        build.runWorker(0, 2);
+        build.runWorker(1, 2);
+        build.merge(2);
+        assertEquals(TestCorpus.numDocs(single), TestCorpus.numDocs(merged));
+        assertEquals(expected, TestCorpus.search(merged, Constants.NONE, questions));
+
+        // A partial index missing a segment file fails the merge while copying, after the checks
+        try (Stream<Path> files = Files.list(partitions.resolve("part-1"))) {
+            for (Path file : (Iterable<Path>) files.filter(file -> file.toString().endsWith(".cfs"))::iterator) {
+                Files.delete(file);
+            }
+        }
+        assertThrows(IOException.class, () -> build.merge(2));
+        assertEquals(expected, TestCorpus.search(merged, Constants.NONE, questions));
+        assertFalse(Files.exists(Paths.get(merged.getIndexPath() + ".merging")));
+    }
+}
@@ -0,0 +1,103 @@
+package main;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks cached queries & results are only served to the layout, query
+ * method & reader they were built for, & do not keep readers alive.
+ */
+class QueryCacheTest {
+
+    @Test
+    void queriesAreKeyedByLayoutAndOptimizer() {
+        QueryCache cache = new QueryCache(10, 10);
+        Query query = new TermQuery(new Term("text", "paris"));
+        cache.putQuery(Constants.STEMMING, false, false, null, "capitals", "paris", query);
+
+        assertSame(query, cache.getQuery(Constants.STEMMING, false, false, null, "capitals", "paris"));
+        assertNull(cache.getQuery(Constants.STEMMING, true, false, null, "capitals", "paris"));
+        assertNull(cache.getQuery(Constants.STEMMING, false, true, null, "capitals", "paris"));
+        assertNull(cache.getQuery(Constants.LEMMA, false, false, null, "capitals", "paris"));
+    }
+
+    @Test
+    void resultsAreKeyedByReader() throws IOException {
+        QueryCache cache = new QueryCache(10, 10);
+        Query query = new TermQuery(new Term("text", "paris"));
+        try (Directory directory = index();
+             DirectoryReader first = DirectoryReader.open(directory);
+             DirectoryReader second = DirectoryReader.open(directory)) {
+            cache.putResults(Constants.STEMMING, Constants.BM25, first, query, 10, Collections.emptyList());
+
+            assertNotNull(cache.getResults(Constants.STEMMING, Constants.BM25, first, query, 10));
+            assertNull(cache.getResults(Constants.STEMMING, Constants.BM25, second, query, 10));
+        }
+    }
+
+    @Test
+    void closedReadersAreNotKeptAlive() throws IOException, InterruptedException {
+        QueryCache cache = new QueryCache(10, 10);
+        Query query = new TermQuery(new Term("text", "paris"));
+        try (Directory directory = index()) {
+            WeakReference<IndexReader> dropped = cacheResultsOfAMultiReader(cache, directory, query);
+            for (int i = 0; i < 50 && dropped.get() != null; i++) {
+                System.gc();
+                Thread.sleep(20);
+            }
+            assertNull(dropped.get(), "cache entries keep a closed reader reachable");
+
+            // Next insertion purges the entries of the collected reader
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                cache.putResults(Constants.STEMMING, Constants.BM25, reader, query, 10, Collections.emptyList());
+            }
+            assertEquals(1, cache.getResultLevel().size());
+        }
+    }
+
+    /**
+     * Caches results on a MultiReader, keyed by the reader itself as it has
+     * no cache helper, then closes it & only returns a weak reference to it
+     */
+    private static WeakReference<IndexReader> cacheResultsOfAMultiReader(QueryCache cache, Directory directory,
+                                                                         Query query) throws IOException {
+        MultiReader reader = new MultiReader(DirectoryReader.open(directory));
+        cache.putResults(Constants.STEMMING, Constants.BM25, reader, query, 10, Collections.emptyList());
+        assertNotNull(cache.getResults(Constants.STEMMING, Constants.BM25, reader, query, 10));
+        assertTrue(cache.getResultLevel().size() > 0);
+        reader.close();
+        return new WeakReference<>(reader);
+    }
+
+    private static Directory index() throws IOException {
+        Directory directory = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+            Document doc = new Document();
+            doc.add(new TextField("text", "paris is the capital of france", Field.Store.NO));
+            writer.addDocument(doc);
+        }
+        return directory;
+    }
+}
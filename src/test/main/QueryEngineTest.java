@@ -0,0 +1,121 @@
+package main;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that evaluating the questions concurrently over a shared
+ * IndexSearcher gives the same results, in the same order, as evaluating
+ * them one after the other, & that questions are normalized like the
+ * Documents they should match.
+ */
+class QueryEngineTest {
+
+    @Test
+    void concurrentEvaluationMatchesSerialEvaluation() throws IOException {
+        List<Question> questions = TestCorpus.loadQuestions();
+        IndexEngine engine = TestCorpus.build(Constants.STEMMING, "index/evaluation", indexEngine -> { });
+        try (IndexReader reader = QueryEngine.openReader(engine.getShardPaths())) {
+            for (String queryMethod : new String[] {Constants.BM25, Constants.TF_IDF, Constants.JM}) {
+                QueryEngine queryEngine = new QueryEngine(engine, reader, queryMethod, Constants.STEMMING);
+                queryEngine.setNumWorkers(1);
+                List<List<String>> serial = describe(queryEngine.evaluate(questions));
+                long serialCorrect = queryEngine.getCorrectCount();
+
+                queryEngine.setNumWorkers(4);
+                assertEquals(serial, describe(queryEngine.evaluate(questions)), queryMethod);
+                assertEquals(2 * serialCorrect, queryEngine.getCorrectCount(), queryMethod);
+            }
+        }
+    }
+
+    @Test
+    void lemmaQueryTermsMatchTheirArticle() throws IOException {
+        IndexEngine engine = TestCorpus.build(Constants.LEMMA, "index/lemma", indexEngine -> { });
+        try (IndexReader reader = QueryEngine.openReader(engine.getShardPaths())) {
+            QueryEngine queryEngine = new QueryEngine(engine, reader, Constants.BM25, Constants.LEMMA);
+            IndexSearcher searcher = new IndexSearcher(reader);
+            int checked = 0;
+            for (int file = 0; file < TestCorpus.NUM_FILES; file++) {
+                try (WikiParser parser = new WikiParser(Paths.get("src/resources", "wiki-" + file + ".txt"))) {
+                    while (parser.hasNext()) {
+                        Article article = parser.next();
+                        String title = article.getTitle().trim();
+                        // The article's category & first sentences, used as questions
+                        String content = article.getContent();
+                        int start = 0;
+                        for (int i = 0; i < 3 && start < content.length(); i++) {
+                            int end = SentenceTokenizer.endOfSentence(content, start);
+                            String clue = content.substring(start, end);
+                            start = end;
+                            for (Term term : terms(queryEngine.buildQuery(article.getCategory(), clue))) {
+                                BooleanQuery inArticle = new BooleanQuery.Builder()
+                                        .add(new TermQuery(new Term("title", title)), BooleanClause.Occur.FILTER)
+                                        .add(new TermQuery(term), BooleanClause.Occur.FILTER)
+                                        .build();
+                                assertEquals(1, searcher.count(inArticle), title + ": " + term + " of \""
+                                        + article.getCategory() + "\" / \"" + clue + "\"");
+                                checked++;
+                            }
+                        }
+                    }
+                }
+            }
+            assertTrue(checked > 100, "only " + checked + " terms checked");
+        }
+    }
+
+    @Test
+    void rescoringStartsFromBm25WhateverTheQueryMethod() throws IOException {
+        List<Question> questions = TestCorpus.loadQuestions();
+        IndexEngine engine = TestCorpus.build(Constants.STEMMING, "index/evaluation", indexEngine -> { });
+        try (IndexReader reader = QueryEngine.openReader(engine.getShardPaths())) {
+            List<List<String>> expected = null;
+            for (String queryMethod : new String[] {Constants.BM25, Constants.TF_IDF, Constants.JM}) {
+                QueryEngine queryEngine = new QueryEngine(engine, reader, queryMethod, Constants.STEMMING);
+                queryEngine.setNumWorkers(1);
+                queryEngine.setRescore(20, 0);
+                List<List<String>> rescored = describe(queryEngine.evaluate(questions));
+                if (expected == null) {
+                    expected = rescored;
+                    assertTrue(expected.stream().anyMatch(hits -> !hits.isEmpty()));
+                }
+                assertEquals(expected, rescored, queryMethod);
+            }
+        }
+    }
+
+    private static List<Term> terms(Query query) {
+        List<Term> terms = new ArrayList<>();
+        for (BooleanClause clause : ((BooleanQuery) query).clauses()) {
+            terms.add(((TermQuery) clause.getQuery()).getTerm());
+        }
+        return terms;
+    }
+
+    private static List<List<String>> describe(List<ArrayList<Result>> allResults) {
+        List<List<String>> described = new ArrayList<>();
+        for (List<Result> results : allResults) {
+            List<String> hits = new ArrayList<>();
+            for (Result result : results) {
+                hits.add(result.getDocId() + " " + result.getTitle() + " " + result.getDocScore());
+            }
+            described.add(hits);
+        }
+        return described;
+    }
+}
@@ -0,0 +1,68 @@
+package main;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks the terms QueryOptimizer keeps, over an index where alpha is
+ * in every document, beta in half of them & gamma in one.
+ */
+class QueryOptimizerTest {
+    private static final List<Term> QUESTION = terms("alpha", "zeta", "beta", "gamma");
+
+    @Test
+    void keepsRareTermsRarestFirst() throws IOException {
+        try (Directory directory = index(); DirectoryReader reader = DirectoryReader.open(directory)) {
+            // At most 2 documents of 4: alpha is too frequent & zeta absent
+            assertEquals(terms("gamma", "beta"), new QueryOptimizer(0.5, 10, 0).select(reader, QUESTION));
+            assertEquals(terms("gamma"), new QueryOptimizer(0.5, 1, 0).select(reader, QUESTION));
+        }
+    }
+
+    @Test
+    void keepsRarestTermWhenAllAreTooFrequent() throws IOException {
+        try (Directory directory = index(); DirectoryReader reader = DirectoryReader.open(directory)) {
+            QueryOptimizer optimizer = new QueryOptimizer(0.1, 10, 0);
+            assertEquals(terms("gamma"), optimizer.select(reader, QUESTION));
+            assertEquals(terms("beta"), optimizer.select(reader, terms("alpha", "beta")));
+            // Absent terms are never kept, even as a fallback
+            assertEquals(terms(), optimizer.select(reader, terms("zeta")));
+            assertEquals("queries=3 clauses/query=0.7 absent=2 frequent=3 capped=0", optimizer.summary());
+        }
+    }
+
+    private static List<Term> terms(String... texts) {
+        List<Term> terms = new ArrayList<>();
+        for (String text : texts) {
+            terms.add(new Term("text", text));
+        }
+        return terms;
+    }
+
+    private static Directory index() throws IOException {
+        Directory directory = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+            for (String text : Arrays.asList("alpha beta", "alpha beta gamma", "alpha", "alpha")) {
+                Document doc = new Document();
+                doc.add(new TextField("text", text, Field.Store.NO));
+                writer.addDocument(doc);
+            }
+        }
+        return directory;
+    }
+}
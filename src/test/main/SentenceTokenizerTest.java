@@ -0,0 +1,68 @@
+package main;
+
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.FlagsAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that SentenceTokenizer produces the tokens of a
+ * StandardTokenizer & flags the first token of every sentence.
+ */
+class SentenceTokenizerTest {
+
+    @Test
+    void flagsTheFirstTokenOfEachSentence() throws IOException {
+        String text = "the cat sat. the u.s. dog ran! \"why?\" she asked... 3.5 apples (or so.) yes";
+        assertEquals(Arrays.asList("+the", "cat", "sat", "+the", "u.s", "+dog", "ran", "+why", "+she", "asked",
+                "+3.5", "apples", "or", "so", "+yes"), describe(new SentenceTokenizer(), text, false));
+    }
+
+    @Test
+    void producesTheTokensOfStandardTokenizer() throws IOException {
+        String text = new String(Files.readAllBytes(Paths.get(System.getProperty("basedir", "."), "wiki-example.txt")),
+                StandardCharsets.UTF_8);
+        assertEquals(describe(new StandardTokenizer(), text, true), describe(new SentenceTokenizer(), text, true));
+    }
+
+    /**
+     * Describes every token as its term, prefixed with '+' if it starts
+     * a sentence, or followed by its offsets & position increment
+     */
+    private static List<String> describe(Tokenizer tokenizer, String text, boolean positions) throws IOException {
+        List<String> tokens = new ArrayList<>();
+        tokenizer.setReader(new StringReader(text));
+        CharTermAttribute termAtt = tokenizer.addAttribute(CharTermAttribute.class);
+        OffsetAttribute offsetAtt = tokenizer.addAttribute(OffsetAttribute.class);
+        PositionIncrementAttribute posIncAtt = tokenizer.addAttribute(PositionIncrementAttribute.class);
+        FlagsAttribute flagsAtt = tokenizer.addAttribute(FlagsAttribute.class);
+        tokenizer.reset();
+        while (tokenizer.incrementToken()) {
+            if (positions) {
+                tokens.add(termAtt + " " + offsetAtt.startOffset() + "-" + offsetAtt.endOffset()
+                        + " +" + posIncAtt.getPositionIncrement());
+            } else {
+                boolean start = (flagsAtt.getFlags() & SentenceTokenizer.SENTENCE_START) != 0;
+                tokens.add((start ? "+" : "") + termAtt);
+            }
+        }
+        tokenizer.end();
+        tokens.add("end " + offsetAtt.endOffset());
+        tokenizer.close();
+        return positions ? tokens : tokens.subList(0, tokens.size() - 1);
+    }
+}
@@ -0,0 +1,130 @@
+package main;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Query;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * TestCorpus sets up the wiki files & questions the tests build & query
+ * indexes with: wiki-example.txt split into a few files under
+ * src/resources of the working directory (see the surefire
+ * configuration), & the questions of questions.txt.
+ */
+final class TestCorpus {
+    static final int NUM_FILES = 3;
+
+    private TestCorpus() {
+    }
+
+    /**
+     * Writes the wiki files, articles dealt round-robin, unless they exist
+     *
+     * @throws IOException
+     */
+    static synchronized void setUp() throws IOException {
+        Path resources = Paths.get("src/resources");
+        if (Files.isDirectory(resources)) {
+            return;
+        }
+        List<List<String>> files = new ArrayList<>();
+        for (int i = 0; i < NUM_FILES; i++) {
+            files.add(new ArrayList<>());
+        }
+        int article = -1;
+        for (String line : Files.readAllLines(getBaseDir().resolve("wiki-example.txt"), StandardCharsets.UTF_8)) {
+            if (line.startsWith("[[") && line.endsWith("]]")) {
+                article++;
+            }
+            files.get(Math.max(article, 0) % NUM_FILES).add(line);
+        }
+        Files.createDirectories(resources);
+        for (int i = 0; i < NUM_FILES; i++) {
+            Files.write(resources.resolve("wiki-" + i + ".txt"), files.get(i), StandardCharsets.UTF_8);
+        }
+    }
+
+    static List<Question> loadQuestions() throws IOException {
+        return Question.load(getBaseDir().resolve("questions.txt").toString());
+    }
+
+    private static Path getBaseDir() {
+        return Paths.get(System.getProperty("basedir", ".")).toAbsolutePath();
+    }
+
+    /**
+     * Builds a fresh index of the method at the given path
+     *
+     * @param indexMethod One of Constants.NONE, LEMMA or STEMMING
+     * @param dataPath Path of the index, deleted first
+     * @param settings Applied to the IndexEngine before the build
+     * @return IndexEngine the index was built with
+     * @throws IOException
+     */
+    static IndexEngine build(String indexMethod, String dataPath, Consumer<IndexEngine> settings) throws IOException {
+        setUp();
+        IndexEngine engine = new IndexEngine(indexMethod);
+        engine.setDataPath(dataPath);
+        settings.accept(engine);
+        deleteRecursively(Paths.get(engine.getIndexPath()));
+        engine.buildIndex();
+        return engine;
+    }
+
+    /**
+     * Runs every question against the index with BM25 & describes every
+     * hit as "title score", ordered by score then title, so indexes
+     * holding the same Documents in a different order compare equal
+     *
+     * @param engine IndexEngine the index was built with
+     * @param indexMethod Index method of the engine
+     * @param questions Questions to run
+     * @return List of the hits of each question
+     */
+    static List<List<String>> search(IndexEngine engine, String indexMethod, List<Question> questions)
+            throws IOException {
+        List<List<String>> hits = new ArrayList<>();
+        try (IndexReader reader = QueryEngine.openReader(engine.getShardPaths())) {
+            QueryEngine queryEngine = new QueryEngine(engine, reader, Constants.BM25, indexMethod);
+            int k = Math.max(1, reader.maxDoc());
+            for (Question question : questions) {
+                Query query = queryEngine.buildQuery(question.getCategory(), question.getClue());
+                List<Result> results = query == null ? new ArrayList<>() : queryEngine.search(query, k);
+                results.sort(Comparator.comparingDouble(Result::getDocScore).reversed()
+                        .thenComparing(Result::getTitle));
+                List<String> described = new ArrayList<>();
+                for (Result result : results) {
+                    described.add(result.getTitle() + " " + result.getDocScore());
+                }
+                hits.add(described);
+            }
+        }
+        return hits;
+    }
+
+    static int numDocs(IndexEngine engine) throws IOException {
+        try (IndexReader reader = QueryEngine.openReader(engine.getShardPaths())) {
+            return reader.numDocs();
+        }
+    }
+
+    static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            for (Path file : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
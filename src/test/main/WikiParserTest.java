@@ -0,0 +1,109 @@
+package main;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks WikiParser splits & cleans Articles like the line classifier
+ * of IndexEngine (isTitle, isCategory, isHeader, sanitize...) it
+ * replaced, up to whitespace.
+ */
+class WikiParserTest {
+
+    @Test
+    void parserMatchesLineClassifier() throws IOException {
+        TestCorpus.setUp();
+        Path crafted = Paths.get("index/parser", "crafted.txt");
+        Files.createDirectories(crafted.getParent());
+        Files.write(crafted, Arrays.asList(
+                "[[First Article]]",
+                "CATEGORIES: Fruit, Trees",
+                "",
+                "  An Apple [tpl]citation needed[/tpl] grows on a tree.  ",
+                "[[Image:apple.jpg|thumb|An apple]] is not a title",
+                "==History==",
+                "=== Early [[cultivars]] ===",
+                "See [[File:tree.png]] & [[Pear]] too.",
+                "[[Second]]",
+                "#REDIRECT First Article [tpl]R from move[/tpl]",
+                "[[Third]]",
+                "A line mentioning CATEGORIES: in passing.",
+                "Ends with = but is text ="), StandardCharsets.UTF_8);
+
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < TestCorpus.NUM_FILES; i++) {
+            files.add(Paths.get("src/resources", "wiki-" + i + ".txt"));
+        }
+        files.add(crafted);
+
+        IndexEngine engine = new IndexEngine(Constants.NONE);
+        int articles = 0;
+        for (Path file : files) {
+            List<String> expected = classifyLines(engine, file);
+            List<String> parsed = new ArrayList<>();
+            try (WikiParser parser = new WikiParser(file)) {
+                while (parser.hasNext()) {
+                    Article article = parser.next();
+                    parsed.add(describe(article.getTitle(), article.getCategory(), article.getContent()));
+                }
+            }
+            assertEquals(expected, parsed, file.toString());
+            articles += parsed.size();
+        }
+        assertTrue(articles > TestCorpus.NUM_FILES + 3, articles + " articles");
+    }
+
+    /**
+     * Splits the file into Articles the way IndexEngine did before
+     * WikiParser: trimmed lines classified one by one, content & category
+     * lowercased once the Article is complete
+     *
+     * @return List of the Articles, as described by describe()
+     */
+    private static List<String> classifyLines(IndexEngine engine, Path file) throws IOException {
+        List<String> articles = new ArrayList<>();
+        String title = "";
+        String category = "";
+        StringBuilder content = new StringBuilder();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (engine.isTitle(line)) {
+                if (!title.isEmpty()) {
+                    articles.add(describe(title, category.toLowerCase(), content.toString().toLowerCase()));
+                    category = "";
+                    content = new StringBuilder();
+                }
+                title = engine.extractTitle(line);
+            } else if (engine.isCategory(line)) {
+                category = engine.extractCategory(line);
+            } else if (engine.isHeader(line)) {
+                content.append(engine.extractHeader(line)).append(' ');
+            } else {
+                content.append(engine.sanitize(line)).append(' ');
+            }
+        }
+        if (!title.isEmpty()) {
+            articles.add(describe(title, category.toLowerCase(), content.toString().toLowerCase()));
+        }
+        return articles;
+    }
+
+    /**
+     * Describes an Article, with runs of whitespace collapsed: the
+     * classifier separates every line (blank ones included) with a space
+     */
+    private static String describe(String title, String category, String content) {
+        return title + " | " + category + " | " + content.trim().replaceAll("\\s+", " ");
+    }
+}